@@ -0,0 +1,86 @@
+package org.fermat.benchmarks;
+
+import org.fermat.ExecutionContext;
+import org.fermatj.core.Coin;
+import org.fermatj.core.Context;
+import org.fermatj.core.ECKey;
+import org.fermatj.core.NetworkParameters;
+import org.fermatj.core.Transaction;
+import org.fermatj.core.Wallet;
+import org.fermatj.params.RegTestParams;
+import org.fermatj.wallet.WalletTransaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * Synthetic inputs shared by the benchmarks: input files of any size and an in-memory wallet holding a funding
+ * output of our key, so transactions can be built and signed without connecting to the network.
+ * Everything is generated from fixed seeds, so every run measures the same content.
+ */
+final class BenchmarkData {
+    // class constants
+    static final NetworkParameters NETWORK = RegTestParams.get();
+    static final long EPOCH_TIME = 1473903112429L;
+    private static final long SEED = 1473903112429L;
+    private static final int TIME_CONSTRAINED_PERCENTAGE = 80; // rows with days for payment
+    private static final int REPEATED_RECIPIENT_PERCENTAGE = 10;
+    private static final int MAX_FERMATS = 100; // per row
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * the context of the benchmarks. It is a test execution, so the funding transaction needs no confirmations.
+     * @return
+     */
+    static ExecutionContext getContext() {
+        return new ExecutionContext(NETWORK, EPOCH_TIME, true);
+    }
+
+    /**
+     * writes an input file with the passed amount of rows, all of them marked to be sent.
+     * @param rows
+     * @return the file, deleted when the benchmark ends.
+     * @throws IOException
+     */
+    static File writeInputFile(int rows) throws IOException {
+        File file = File.createTempFile("benchmark-" + rows + "-", ".csv");
+        file.deleteOnExit();
+
+        InputFileGenerator generator = new InputFileGenerator(NETWORK, SEED);
+        generator.setTimeConstrainedPercentage(TIME_CONSTRAINED_PERCENTAGE);
+        generator.setRepeatedRecipientPercentage(REPEATED_RECIPIENT_PERCENTAGE);
+        generator.setFermatRange(1, MAX_FERMATS);
+        generator.write(file, rows);
+        return file;
+    }
+
+    /**
+     * creates a wallet with our key and a transaction that sends it the passed value, in place of the genesis transaction.
+     * @param value
+     * @return
+     */
+    static Wallet createFundedWallet(Coin value) {
+        Context.getOrCreate(NETWORK);
+
+        ECKey privateKey = ECKey.fromPrivate(BigInteger.valueOf(SEED));
+        Wallet wallet = new Wallet(NETWORK);
+        wallet.importKey(privateKey);
+
+        Transaction fundingTransaction = new Transaction(NETWORK);
+        fundingTransaction.addOutput(value, privateKey.toAddress(NETWORK));
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, fundingTransaction));
+        return wallet;
+    }
+
+    /**
+     * gets the funding transaction of a wallet created with createFundedWallet.
+     * @param wallet
+     * @return
+     */
+    static Transaction getFundingTransaction(Wallet wallet) {
+        return wallet.getTransactionPool(WalletTransaction.Pool.UNSPENT).values().iterator().next();
+    }
+}
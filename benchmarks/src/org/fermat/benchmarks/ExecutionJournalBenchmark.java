@@ -0,0 +1,102 @@
+package org.fermat.benchmarks;
+
+import org.fermat.ExecutionContext;
+import org.fermat.fermatTransaction.ExecutionJournal;
+import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermat.fermatTransaction.FermatTransactionBuilder;
+import org.fermat.fermatTransaction.TransactionsInputFileNotValidException;
+import org.fermat.transaction.TransactionBuilder;
+import org.fermat.transaction.TransactionErrorException;
+import org.fermatj.core.Coin;
+import org.fermatj.core.Transaction;
+import org.fermatj.core.Wallet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording of a plan and its signed transactions on the execution journal, synced to disk once, as done
+ * before broadcasting. Each invocation writes a new journal on a temporary file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExecutionJournalBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int rows;
+
+    private FermatTransactionBuilder fermatTransactionBuilder;
+    private List<FermatTransaction> fermatTransactions;
+    private List<Transaction> transactions;
+    private File journalFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, TransactionsInputFileNotValidException, TransactionErrorException {
+        ExecutionContext context = BenchmarkData.getContext();
+
+        File inputFile = BenchmarkData.writeInputFile(rows);
+        try {
+            fermatTransactionBuilder = new FermatTransactionBuilder(context, inputFile);
+            fermatTransactionBuilder.generateTransactions();
+            fermatTransactions = fermatTransactionBuilder.getFermatTransactions();
+        } finally {
+            inputFile.delete();
+        }
+
+        // one more coin, so the last transaction returns some change to our key
+        Wallet wallet = BenchmarkData.createFundedWallet(Coin.valueOf(fermatTransactionBuilder.getTotalFermats()).add(Coin.COIN));
+        TransactionBuilder transactionBuilder = new TransactionBuilder(context, BenchmarkData.getFundingTransaction(wallet).getHash(), wallet, fermatTransactions);
+        for (FermatTransaction fermatTransaction : fermatTransactions)
+            transactionBuilder.addFermatTransaction(fermatTransaction);
+        transactionBuilder.completeTransaction();
+        transactions = transactionBuilder.getTransactions();
+
+        journalFile = File.createTempFile("benchmark", ".journal");
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteJournal() {
+        journalFile.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        journalFile.delete();
+    }
+
+    /**
+     * opens a new journal and records the plan with a single sync.
+     * @return
+     * @throws IOException
+     */
+    @Benchmark
+    public ExecutionJournal appendPlan() throws IOException {
+        ExecutionJournal journal = new ExecutionJournal(journalFile);
+        journal.open();
+        try {
+            journal.appendPlan(fermatTransactionBuilder, fermatTransactions, transactions);
+            journal.sync();
+        } finally {
+            journal.close();
+        }
+        return journal;
+    }
+}
@@ -0,0 +1,79 @@
+package org.fermat.benchmarks;
+
+import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermat.fermatTransaction.FermatTransactionBuilder;
+import org.fermat.fermatTransaction.TransactionsInputFileNotValidException;
+import org.fermat.fermatTransaction.inputFileManagement.InputFileReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the input file: reading the rows alone, and reading plus validating them into fermat transactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class InputFileBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int rows;
+
+    private File inputFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        inputFile = BenchmarkData.writeInputFile(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        inputFile.delete();
+    }
+
+    /**
+     * reads every row of the file, without validating them.
+     * @return
+     * @throws IOException
+     */
+    @Benchmark
+    public int readRows() throws IOException {
+        int count = 0;
+        try (InputFileReader reader = new InputFileReader(inputFile)) {
+            reader.open();
+            while (reader.nextRow() != null)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * reads and validates the rows, creating the fermat transactions.
+     * @return
+     * @throws IOException
+     * @throws TransactionsInputFileNotValidException
+     */
+    @Benchmark
+    public List<FermatTransaction> generateTransactions() throws IOException, TransactionsInputFileNotValidException {
+        FermatTransactionBuilder fermatTransactionBuilder = new FermatTransactionBuilder(BenchmarkData.getContext(), inputFile);
+        fermatTransactionBuilder.generateTransactions();
+        return fermatTransactionBuilder.getFermatTransactions();
+    }
+}
@@ -0,0 +1,293 @@
+package org.fermat.benchmarks;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.fermat.transaction.Utils;
+import org.fermatj.core.Address;
+import org.fermatj.core.NetworkParameters;
+import org.fermatj.params.MainNetParams;
+import org.fermatj.params.RegTestParams;
+import org.fermatj.params.TestNet3Params;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Generates input files of any size in the format validated by the FermatTransactionBuilder, with valid addresses
+ * of the passed network. Rows are written as they are generated, so the size of the file is not limited by memory.
+ * The same seed and settings always generate the same file.
+ */
+public class InputFileGenerator {
+    // class constants
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final String HEADER = "Name,Address,Fermats,DaysForPayment,Send,Transaction";
+    private static final int MAX_RECENT_RECIPIENTS = 64 * 1024; // recipients that can be repeated
+    private static final int HASH160_LENGTH = 20;
+
+    private final NetworkParameters networkParameters;
+    private final long seed;
+
+    // class variables
+    private int timeConstrainedPercentage = 50;
+    private int repeatedRecipientPercentage = 10;
+    private int notSentPercentage = 0;
+    private long minFermats = 1;
+    private long maxFermats = 1000;
+    private int maxDaysForPayment = 3650;
+
+    /**
+     * constructor
+     * @param networkParameters the network of the generated addresses
+     * @param seed
+     */
+    public InputFileGenerator(NetworkParameters networkParameters, long seed) {
+        Preconditions.checkNotNull(networkParameters);
+
+        this.networkParameters = networkParameters;
+        this.seed = seed;
+    }
+
+    /**
+     * sets the percentage of rows with days for payment. Default is 50.
+     * @param timeConstrainedPercentage
+     */
+    public void setTimeConstrainedPercentage(int timeConstrainedPercentage) {
+        Preconditions.checkArgument(timeConstrainedPercentage >= 0 && timeConstrainedPercentage <= 100);
+        this.timeConstrainedPercentage = timeConstrainedPercentage;
+    }
+
+    /**
+     * sets the percentage of rows that send to a recipient of a previous row, with its alias and address. Default is 10.
+     * @param repeatedRecipientPercentage
+     */
+    public void setRepeatedRecipientPercentage(int repeatedRecipientPercentage) {
+        Preconditions.checkArgument(repeatedRecipientPercentage >= 0 && repeatedRecipientPercentage <= 100);
+        this.repeatedRecipientPercentage = repeatedRecipientPercentage;
+    }
+
+    /**
+     * sets the percentage of rows without a mark on the Send column. Default is 0.
+     * @param notSentPercentage
+     */
+    public void setNotSentPercentage(int notSentPercentage) {
+        Preconditions.checkArgument(notSentPercentage >= 0 && notSentPercentage <= 100);
+        this.notSentPercentage = notSentPercentage;
+    }
+
+    /**
+     * sets the range of fermats of each row. Default is 1 to 1000.
+     * @param minFermats
+     * @param maxFermats at most the premined amount
+     */
+    public void setFermatRange(long minFermats, long maxFermats) {
+        Preconditions.checkArgument(minFermats > 0 && minFermats <= maxFermats);
+        Preconditions.checkArgument(maxFermats <= Utils.preminedAmount, "The amount of fermats can't be higher than the premined amount.");
+        this.minFermats = minFermats;
+        this.maxFermats = maxFermats;
+    }
+
+    /**
+     * sets the maximum days for payment of time constrained rows. Default is 3650.
+     * @param maxDaysForPayment
+     */
+    public void setMaxDaysForPayment(int maxDaysForPayment) {
+        Preconditions.checkArgument(maxDaysForPayment > 0);
+        this.maxDaysForPayment = maxDaysForPayment;
+    }
+
+    /**
+     * writes an input file with the passed amount of rows.
+     * @param file
+     * @param rows
+     * @return the total fermats of the rows marked to be sent.
+     * @throws IOException
+     */
+    public long write(File file, long rows) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CHARSET), 64 * 1024)) {
+            return write(writer, rows);
+        }
+    }
+
+    /**
+     * writes the header and the passed amount of rows. The writer is not closed.
+     * @param writer
+     * @param rows
+     * @return the total fermats of the rows marked to be sent.
+     * @throws IOException
+     */
+    public long write(Writer writer, long rows) throws IOException {
+        Preconditions.checkNotNull(writer);
+        Preconditions.checkArgument(rows >= 0);
+
+        Random random = new Random(seed);
+
+        // recent recipients are kept on a ring, so repetitions don't need memory for the whole file
+        String[] recipientAddresses = new String[MAX_RECENT_RECIPIENTS];
+        long[] recipientIds = new long[MAX_RECENT_RECIPIENTS];
+        int recipientCount = 0;
+        long nextRecipientId = 0;
+
+        long totalFermats = 0;
+        StringBuilder line = new StringBuilder(128);
+
+        writer.write(HEADER);
+        writer.write('\n');
+        for (long row = 0; row < rows; row++){
+            int recipient;
+            if (recipientCount > 0 && random.nextInt(100) < repeatedRecipientPercentage)
+                recipient = random.nextInt(Math.min(recipientCount, MAX_RECENT_RECIPIENTS));
+            else {
+                recipient = recipientCount % MAX_RECENT_RECIPIENTS;
+                byte[] hash160 = new byte[HASH160_LENGTH];
+                random.nextBytes(hash160);
+                recipientAddresses[recipient] = new Address(networkParameters, hash160).toString();
+                recipientIds[recipient] = nextRecipientId++;
+                recipientCount++;
+            }
+
+            long fermats = minFermats + nextLong(random, maxFermats - minFermats + 1);
+            int days = random.nextInt(100) < timeConstrainedPercentage ? 1 + random.nextInt(maxDaysForPayment) : 0;
+            boolean send = random.nextInt(100) >= notSentPercentage;
+            if (send)
+                totalFermats = totalFermats + fermats;
+
+            line.setLength(0);
+            line.append("Recipient ").append(recipientIds[recipient]).append(',')
+                    .append(recipientAddresses[recipient]).append(',')
+                    .append(fermats).append(',')
+                    .append(days).append(',')
+                    .append(send ? "x" : "").append(",\n");
+            writer.append(line);
+        }
+        writer.flush();
+        return totalFermats;
+    }
+
+    /**
+     * a random long between 0 (inclusive) and the passed bound (exclusive).
+     */
+    private static long nextLong(Random random, long bound) {
+        if (bound <= Integer.MAX_VALUE)
+            return random.nextInt((int) bound);
+
+        return (random.nextLong() >>> 1) % bound;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = defineOptions();
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            new HelpFormatter().printHelp("InputFileGenerator", options);
+            System.exit(-1);
+            return;
+        }
+
+        if (cmd.hasOption("h") || !cmd.hasOption("r") || !cmd.hasOption("o")){
+            new HelpFormatter().printHelp("InputFileGenerator", options);
+            System.exit(cmd.hasOption("h") ? 0 : -1);
+        }
+
+        NetworkParameters networkParameters;
+        switch (cmd.getOptionValue("n", "MAIN").toUpperCase()){
+            case "MAIN":
+                networkParameters = MainNetParams.get();
+                break;
+            case "TEST":
+                networkParameters = TestNet3Params.get();
+                break;
+            case "REGTEST":
+                networkParameters = RegTestParams.get();
+                break;
+            default:
+                System.err.println("Invalid Network parameter specified.");
+                System.exit(-1);
+                return;
+        }
+
+        InputFileGenerator generator = new InputFileGenerator(networkParameters, Long.parseLong(cmd.getOptionValue("s", "0")));
+        try {
+            if (cmd.hasOption("t"))
+                generator.setTimeConstrainedPercentage(Integer.parseInt(cmd.getOptionValue("t")));
+            if (cmd.hasOption("u"))
+                generator.setRepeatedRecipientPercentage(Integer.parseInt(cmd.getOptionValue("u")));
+            if (cmd.hasOption("x"))
+                generator.setNotSentPercentage(Integer.parseInt(cmd.getOptionValue("x")));
+            if (cmd.hasOption("f") || cmd.hasOption("F"))
+                generator.setFermatRange(Long.parseLong(cmd.getOptionValue("f", "1")), Long.parseLong(cmd.getOptionValue("F", "1000")));
+            if (cmd.hasOption("d"))
+                generator.setMaxDaysForPayment(Integer.parseInt(cmd.getOptionValue("d")));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid generator setting. " + (e.getMessage() == null ? "" : e.getMessage()));
+            System.exit(-1);
+        }
+
+        File outputFile = new File(cmd.getOptionValue("o"));
+        long rows = Long.parseLong(cmd.getOptionValue("r"));
+        long totalFermats = generator.write(outputFile, rows);
+        System.out.println(rows + " rows sending " + totalFermats + " fermats stored at " + outputFile.getAbsolutePath());
+        if (totalFermats > Utils.preminedAmount)
+            System.out.println("The rows send more than the premined amount of " + Utils.preminedAmount + " fermats.");
+    }
+
+    private static Options defineOptions() {
+        Options options = new Options();
+        Option optRows = new Option("r", "rows", true, "Amount of rows to generate.");
+        optRows.setRequired(false);
+        options.addOption(optRows);
+
+        Option optOutput = new Option("o", "output", true, "File to write the rows to.");
+        optOutput.setRequired(false);
+        options.addOption(optOutput);
+
+        Option optNetwork = new Option("n", "network", true, "Network of the addresses: MAIN, TEST or REGTEST. Default is MAIN.");
+        optNetwork.setRequired(false);
+        options.addOption(optNetwork);
+
+        Option optSeed = new Option("s", "seed", true, "Seed of the generated content. Default is 0.");
+        optSeed.setRequired(false);
+        options.addOption(optSeed);
+
+        Option optTimeConstrained = new Option("t", "timeConstrained", true, "Percentage of rows with days for payment. Default is 50.");
+        optTimeConstrained.setRequired(false);
+        options.addOption(optTimeConstrained);
+
+        Option optRepeated = new Option("u", "repeated", true, "Percentage of rows sending to the recipient of a previous row. Default is 10.");
+        optRepeated.setRequired(false);
+        options.addOption(optRepeated);
+
+        Option optNotSent = new Option("x", "notSent", true, "Percentage of rows not marked to be sent. Default is 0.");
+        optNotSent.setRequired(false);
+        options.addOption(optNotSent);
+
+        Option optMinFermats = new Option("f", "minFermats", true, "Minimum fermats of a row. Default is 1.");
+        optMinFermats.setRequired(false);
+        options.addOption(optMinFermats);
+
+        Option optMaxFermats = new Option("F", "maxFermats", true, "Maximum fermats of a row, up to the premined amount. Default is 1000.");
+        optMaxFermats.setRequired(false);
+        options.addOption(optMaxFermats);
+
+        Option optDays = new Option("d", "days", true, "Maximum days for payment of the time constrained rows. Default is 3650.");
+        optDays.setRequired(false);
+        options.addOption(optDays);
+
+        Option optHelp = new Option("h", "help", false, "shows this Help");
+        optHelp.setRequired(false);
+        options.addOption(optHelp);
+
+        return options;
+    }
+}
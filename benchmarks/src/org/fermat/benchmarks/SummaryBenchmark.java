@@ -0,0 +1,73 @@
+package org.fermat.benchmarks;
+
+import org.fermat.ExecutionContext;
+import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermat.fermatTransaction.FermatTransactionBuilder;
+import org.fermat.fermatTransaction.FermatTransactionsSummary;
+import org.fermat.fermatTransaction.TransactionsInputFileNotValidException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculation of the summary shown before broadcasting, and of the text printed and logged from it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SummaryBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int rows;
+
+    private ExecutionContext context;
+    private List<FermatTransaction> fermatTransactions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, TransactionsInputFileNotValidException {
+        context = BenchmarkData.getContext();
+
+        File inputFile = BenchmarkData.writeInputFile(rows);
+        try {
+            FermatTransactionBuilder fermatTransactionBuilder = new FermatTransactionBuilder(context, inputFile);
+            fermatTransactionBuilder.generateTransactions();
+            fermatTransactions = fermatTransactionBuilder.getFermatTransactions();
+        } finally {
+            inputFile.delete();
+        }
+    }
+
+    @Benchmark
+    public FermatTransactionsSummary calculateSummary() {
+        FermatTransactionsSummary summary = new FermatTransactionsSummary(context, fermatTransactions);
+        summary.calculateSummary();
+        return summary;
+    }
+
+    /**
+     * calculates the summary and renders it as shown on screen.
+     * @return
+     */
+    @Benchmark
+    public String summaryText() {
+        FermatTransactionsSummary summary = new FermatTransactionsSummary(context, fermatTransactions);
+        summary.calculateSummary();
+        return summary.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package org.fermat.benchmarks;
+
+import org.fermat.ExecutionContext;
+import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermat.fermatTransaction.FermatTransactionBuilder;
+import org.fermat.fermatTransaction.TransactionsInputFileNotValidException;
+import org.fermat.transaction.TransactionBuilder;
+import org.fermat.transaction.TransactionErrorException;
+import org.fermatj.core.Coin;
+import org.fermatj.core.Sha256Hash;
+import org.fermatj.core.Transaction;
+import org.fermatj.core.Wallet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generation of the redeem scripts, and building and signing of the distribution transactions from an
+ * in-memory wallet funded with the total of the plan plus some change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TransactionBuilderBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int rows;
+
+    private ExecutionContext context;
+    private List<FermatTransaction> fermatTransactions;
+    private Wallet wallet;
+    private Sha256Hash fundingTxhash;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, TransactionsInputFileNotValidException {
+        context = BenchmarkData.getContext();
+
+        File inputFile = BenchmarkData.writeInputFile(rows);
+        try {
+            FermatTransactionBuilder fermatTransactionBuilder = new FermatTransactionBuilder(context, inputFile);
+            fermatTransactionBuilder.generateTransactions();
+            fermatTransactions = fermatTransactionBuilder.getFermatTransactions();
+
+            // one more coin, so the last transaction returns some change to our key
+            wallet = BenchmarkData.createFundedWallet(Coin.valueOf(fermatTransactionBuilder.getTotalFermats()).add(Coin.COIN));
+            fundingTxhash = BenchmarkData.getFundingTransaction(wallet).getHash();
+        } finally {
+            inputFile.delete();
+        }
+    }
+
+    /**
+     * generates the redeem script of every time constrained row, like the -g option does.
+     * @return
+     */
+    @Benchmark
+    public TransactionBuilder generateRedeemScripts() {
+        TransactionBuilder transactionBuilder = new TransactionBuilder();
+        for (FermatTransaction fermatTransaction : fermatTransactions){
+            if (fermatTransaction.isTimeContrained())
+                transactionBuilder.addTimeConstrainedTransaction(fermatTransaction);
+        }
+        return transactionBuilder;
+    }
+
+    /**
+     * adds the outputs of every row to the chain of transactions, without funding or signing them.
+     * @return
+     */
+    @Benchmark
+    public List<Transaction> buildTransactions() {
+        TransactionBuilder transactionBuilder = new TransactionBuilder(context, fundingTxhash, wallet, fermatTransactions);
+        for (FermatTransaction fermatTransaction : fermatTransactions)
+            transactionBuilder.addFermatTransaction(fermatTransaction);
+        return transactionBuilder.getTransactions();
+    }
+
+    /**
+     * builds the transactions and completes them, which funds, signs and verifies each one.
+     * @return
+     * @throws TransactionErrorException
+     */
+    @Benchmark
+    public List<Transaction> buildAndSignTransactions() throws TransactionErrorException {
+        TransactionBuilder transactionBuilder = new TransactionBuilder(context, fundingTxhash, wallet, fermatTransactions);
+        for (FermatTransaction fermatTransaction : fermatTransactions)
+            transactionBuilder.addFermatTransaction(fermatTransaction);
+        transactionBuilder.completeTransaction();
+        return transactionBuilder.getTransactions();
+    }
+}
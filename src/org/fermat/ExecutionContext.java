@@ -0,0 +1,83 @@
+package org.fermat;
+
+import com.google.common.base.Preconditions;
+import org.fermatj.core.NetworkParameters;
+
+/**
+ * The settings of a distribution job: the network, the start time from which days for payment are counted,
+ * and if controls are reduced for a test environment.
+ * It is immutable, so jobs with different settings can run at the same time on the same process. The unlock table
+ * is only built by the jobs that need it.
+ */
+public final class ExecutionContext {
+    private final NetworkParameters networkParameters;
+    private final long epochTime;
+    private final boolean testExecution;
+    private volatile UnlockTable unlockTable;
+
+    /**
+     * constructor
+     * @param networkParameters the network to distribute on
+     * @param epochTime the start time of the process, in milliseconds
+     * @param testExecution true to reduce the controls needed for a test environment
+     */
+    public ExecutionContext(NetworkParameters networkParameters, long epochTime, boolean testExecution) {
+        Preconditions.checkNotNull(networkParameters);
+
+        this.networkParameters = networkParameters;
+        this.epochTime = epochTime;
+        this.testExecution = testExecution;
+    }
+
+    public NetworkParameters getNetworkParameters() {
+        return networkParameters;
+    }
+
+    /**
+     * the epoch time of the start of the process, in milliseconds.
+     * @return
+     */
+    public long getEpochTime() {
+        return epochTime;
+    }
+
+    public boolean isTestExecution() {
+        return testExecution;
+    }
+
+    /**
+     * the unlock times of the days and months after the start time, built the first time it is needed.
+     * @return
+     */
+    public UnlockTable getUnlockTable() {
+        UnlockTable table = unlockTable;
+        if (table == null){
+            synchronized (this) {
+                table = unlockTable;
+                if (table == null){
+                    table = new UnlockTable(epochTime);
+                    unlockTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * a copy of this context starting at the passed time.
+     * @param epochTime
+     * @return
+     */
+    public ExecutionContext withEpochTime(long epochTime) {
+        return new ExecutionContext(networkParameters, epochTime, testExecution);
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionContext{" +
+                "network=" + networkParameters.getPaymentProtocolId() +
+                ", epochTime=" + epochTime +
+                ", testExecution=" + testExecution +
+                '}';
+    }
+}
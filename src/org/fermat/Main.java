@@ -3,12 +3,26 @@ package org.fermat;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import org.apache.commons.cli.*;
+import org.fermat.blockchain.BroadcastHandle;
 import org.fermat.blockchain.CantConnectToFermatBlockchainException;
 import org.fermat.blockchain.FermatNetwork;
-import org.fermat.fermatTransaction.ExecutionLogger;
+import org.fermat.daemon.DistributionDaemon;
+import org.fermat.fermatTransaction.ExecutionJournal;
+import org.fermat.fermatTransaction.ExecutionJournalReader;
 import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermat.fermatTransaction.FermatTransactionAggregator;
+import org.fermat.fermatTransaction.FermatTransactionBatch;
 import org.fermat.fermatTransaction.FermatTransactionBuilder;
 import org.fermat.fermatTransaction.FermatTransactionsSummary;
+import org.fermat.fermatTransaction.InputFileRowError;
+import org.fermat.fermatTransaction.TransactionsInputFileNotValidException;
+import org.fermat.history.DuplicatePayment;
+import org.fermat.history.HistoryEntry;
+import org.fermat.history.HistoryRecorder;
+import org.fermat.history.HistoryRow;
+import org.fermat.history.HistoryStore;
+import org.fermat.telemetry.PhaseTimer;
+import org.fermat.telemetry.Telemetry;
 import org.fermat.transaction.TransactionBuilder;
 import org.fermat.transaction.TransactionErrorException;
 import org.fermatj.core.*;
@@ -21,24 +35,24 @@ import org.spongycastle.util.encoders.Hex;
 import java.io.Console;
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
 public class Main {
     // static variables
     private static NetworkParameters networkParameters; //the network parameters of the network
-    private static long EPOC_TIME; // the epoch time to use for the process
+    private static final int MAX_DUPLICATES_SHOWN = 50; // rows already paid shown before the summary
     private static boolean isTestExecution = false; //if this is a test execution to avoid controls
     private static HelpFormatter formatter;
     private static CommandLine cmd;
     private static Options options;
-    private static FermatTransactionBuilder fermatTransactionBuilder;
+    private static FermatTransactionBatch fermatTransactionBatch;
 
     //gets the logger
     public static Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
 
-    public static NetworkParameters getNetworkParameters(){
-        return networkParameters;
-    }
-
     public static void main(String[] args) throws CantConnectToFermatBlockchainException, TransactionErrorException {
         //input variables
 //        String pubkey;
@@ -48,7 +62,8 @@ public class Main {
 //            e.printStackTrace();
 //        }
         String privateKey;
-        File  inputFile;
+        List<File> inputFiles;
+        ExecutionContext context = null;
 
         options = defineOptions();
 
@@ -69,6 +84,11 @@ public class Main {
             System.exit(-1);
         }
 
+        // measure each phase and report them on exit if requested
+        if (cmd.hasOption("f"))
+            startProfiling(new File(cmd.getOptionValue("f")));
+        PhaseTimer startupTimer = Telemetry.start(Telemetry.STARTUP);
+
         //change the loggin level if passed as a parameter
         if (cmd.hasOption("d"))
             logger.setLevel(Level.DEBUG);
@@ -85,14 +105,45 @@ public class Main {
             System.exit(0);
         }
 
+        // shows a previous execution journal and exits
+        if (cmd.hasOption("j")){
+            try {
+                ExecutionJournalReader.print(new File(cmd.getOptionValue("j")), System.out);
+                System.exit(0);
+            } catch (IOException e) {
+                System.err.println("Unable to read the execution journal " + cmd.getOptionValue("j") + ": " + e.getMessage());
+                System.exit(-1);
+            }
+        }
+
         //network type
         defineNetwork();
 
-        //input file validation
-        inputFile =  new File(cmd.getOptionValue("i"));
-        if (!inputFile.exists()){
-            formatter.printHelp("Input file does not exists.", options);
+        // shows the past distributions to an address or of a transaction and exits
+        if (cmd.hasOption("q")){
+            queryHistory(cmd.getOptionValue("q"));
+            System.exit(0);
+        }
+
+        // the daemon receives the input files through its API
+        if (cmd.hasOption("l")){
+            privateKey = cmd.getOptionValue("p");
+            if (!isPrivateKeyValid(privateKey)){
+                System.err.println("The specified private key " + privateKey + " is not valid on network " + networkParameters.getPaymentProtocolId());
+                System.exit(-1);
+            }
+            // each plan received gets its own start time.
+            runDaemon(new ExecutionContext(networkParameters, System.currentTimeMillis(), isTestExecution), privateKey, Integer.parseInt(cmd.getOptionValue("l")));
+            return;
+        }
+
+        //input file validation. Several files or directories can be distributed on the same execution.
+        try {
+            inputFiles = FermatTransactionBatch.getInputFiles(cmd.getOptionValue("i"));
+        } catch (TransactionsInputFileNotValidException e) {
+            formatter.printHelp(e.getMessage(), options);
             System.exit(1);
+            return;
         }
 
 
@@ -101,29 +152,55 @@ public class Main {
          * else, I will set current epoch time as value.
          */
         try {
+            long epochTime;
             if (cmd.hasOption("g")){
                 String value = cmd.getOptionValue("g");
-                EPOC_TIME = Long.parseLong(value);
+                epochTime = Long.parseLong(value);
             }
             else
-                EPOC_TIME = System.currentTimeMillis();
+                epochTime = System.currentTimeMillis();
+            context = new ExecutionContext(networkParameters, epochTime, isTestExecution);
         } catch (Exception e){
             System.err.println("There was an error trying to parse the provided EPOC_TIME");
             System.exit(-1);
         }
 
+        startupTimer.close();
+
         //transaction generation
-        try {
-            fermatTransactionBuilder = new FermatTransactionBuilder(inputFile);
-            fermatTransactionBuilder.generateTransactions();
-        } catch (AddressFormatException addressFormat) {
-          System.err.println("Provided Address on input file is not valid.");
+        try (PhaseTimer generationTimer = Telemetry.start(Telemetry.TRANSACTION_GENERATION)) {
+            fermatTransactionBatch = new FermatTransactionBatch(context, inputFiles);
+            fermatTransactionBatch.generateTransactions();
+        } catch (TransactionsInputFileNotValidException inputFileNotValid) {
+            System.err.println(inputFileNotValid.getMessage());
+            for (InputFileRowError rowError : inputFileNotValid.getRowErrors()){
+                System.err.println(rowError.toString());
+            }
             System.exit(-1);
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(1);
         }
 
+        // if we are compiling the plan, store it and exit
+        if (cmd.hasOption("c")){
+            File compiledPlan = new File(cmd.getOptionValue("c"));
+            if (inputFiles.size() > 1){
+                System.err.println("Only one input file can be compiled at a time.");
+                System.exit(-1);
+            }
+            FermatTransactionBuilder fermatTransactionBuilder = fermatTransactionBatch.getFermatTransactionBuilders().get(0);
+            try {
+                fermatTransactionBuilder.compilePlan(compiledPlan);
+                System.out.println("Compiled plan with " + fermatTransactionBuilder.getFermatTransactions().size() + " transactions stored at " + compiledPlan.getAbsolutePath());
+                System.exit(0);
+            } catch (IOException e) {
+                System.err.println("There was an error storing the compiled plan at " + compiledPlan.getAbsolutePath());
+                e.printStackTrace();
+                System.exit(-1);
+            }
+        }
+
         // if we are generating the scripts. print it on script and exit
         try{
             if (cmd.hasOption("g")){
@@ -144,61 +221,385 @@ public class Main {
         }
 
 
+        // warn about rows already paid on previous distributions before asking for confirmation
+        checkDuplicatePayments(fermatTransactionBatch.getFermatTransactions());
+
         /**
-         * show transaction summary and wait for user confirmation.
+         * show transaction summary of all the files and wait for user confirmation.
          */
-        FermatTransactionsSummary summary = new FermatTransactionsSummary(fermatTransactionBuilder.getFermatTransactions());
-        summary.calculateSummary();
+        PhaseTimer summaryTimer = Telemetry.start(Telemetry.SUMMARY);
+        FermatTransactionsSummary summary = fermatTransactionBatch.getSummary();
+        summaryTimer.stop(summary.getTotalTransactions());
         System.out.println();
+        if (inputFiles.size() > 1)
+            System.out.println("Input files: " + inputFiles.size());
         System.out.println(summary.toString());
+        if (cmd.hasOption("r")){
+            File reportFile = new File(cmd.getOptionValue("r"));
+            try {
+                summary.writeReport(reportFile);
+                System.out.println("Full summary stored at " + reportFile.getAbsolutePath());
+            } catch (IOException e) {
+                System.err.println("Unable to store the full summary at " + reportFile.getAbsolutePath());
+            }
+        }
         System.out.println();
         waitForResponse();
 
-        ExecutionLogger executionLogger = null;
-        TransactionBuilder transactionBuilder=null;
+        // each input file is a plan. merge the rows that send to the same address and time if requested
+        List<FermatTransactionBuilder> plans = fermatTransactionBatch.getFermatTransactionBuilders();
+        List<List<FermatTransaction>> planOutputs = new ArrayList<>();
+        for (FermatTransactionBuilder plan : plans){
+            List<FermatTransaction> outputTransactions = plan.getFermatTransactions();
+            if (cmd.hasOption("a")){
+                outputTransactions = FermatTransactionAggregator.aggregate(outputTransactions);
+                System.out.println(plan.getInputFile().getName() + ": " + plan.getFermatTransactions().size() + " rows merged into " + outputTransactions.size() + " outputs.");
+            }
+            planOutputs.add(outputTransactions);
+        }
+
+        ExecutionJournal journal = new ExecutionJournal(ExecutionJournal.DEFAULT_FILE);
+        HistoryStore history = new HistoryStore(HistoryStore.getHistoryDirectory(getStoreDirectory(), networkParameters));
+        HistoryRecorder historyRecorder = new HistoryRecorder(journal, history);
+        List<Transaction> transactions = new ArrayList<>();
+        FermatNetwork network = null;
         try {
-            final FermatNetwork network = new FermatNetwork(privateKey); //new FermatNetwork("8PAJoDzv1zMFNmRSG8w6enFGnG9twzRJoPc68hgKBNmNuRktXqv9");
-            network.initialize();
+            network = createNetwork(context, privateKey); //new FermatNetwork("8PAJoDzv1zMFNmRSG8w6enFGnG9twzRJoPc68hgKBNmNuRktXqv9");
+            try (PhaseTimer networkTimer = Telemetry.start(Telemetry.NETWORK_INITIALIZATION)) {
+                network.initialize();
+            }
 
-            // do we have the funds to send what we are trying to send?
-            if (fermatTransactionBuilder.getTotalFermats() > network.getFermatWallet().getBalance(Wallet.BalanceType.AVAILABLE).getValue())
-                throw new TransactionErrorException("The amount of tokens to send is higher than our current balance. " + Coin.valueOf(fermatTransactionBuilder.getTotalFermats()).toFriendlyString() + "/" + Coin.valueOf(network.getFermatWallet().getBalance(Wallet.BalanceType.AVAILABLE).getValue()).toFriendlyString());
+            // every transaction is recorded once sent, including the ones resumed from previous executions.
+            try (PhaseTimer journalTimer = Telemetry.start(Telemetry.EXECUTION_JOURNAL)) {
+                journal.open();
+                history.open();
+            } catch (IOException e) {
+                throw new TransactionErrorException("Unable to open the execution journal " + journal.getFile().getAbsolutePath() + " or the distribution history " + history.getDirectory().getAbsolutePath() + ". Nothing was broadcasted.", e);
+            }
+            network.addBroadcastListener(historyRecorder);
 
-            // create bitcoin transaction
-            transactionBuilder = new TransactionBuilder(network.getGenesisTransaction().getHash(), network.getFermatWallet(), fermatTransactionBuilder.getFermatTransactions());
-            for (FermatTransaction fermatTransaction : fermatTransactionBuilder.getFermatTransactions()){
-                transactionBuilder.addFermatTransaction(fermatTransaction);
+            // transactions of a previous execution must be confirmed before spending our funds again.
+            if (!resumePendingBroadcasts(network)){
+                System.out.println("Pending transactions broadcasted. Execute again once they are confirmed to distribute " + cmd.getOptionValue("i"));
+                network.shutdown();
+                System.exit(0);
             }
 
-            // completes the transaction
-            transactionBuilder.completeTransaction();
+            // do we have the funds to send what we are trying to send?
+            if (fermatTransactionBatch.getTotalFermats() > network.getFermatWallet().getBalance(Wallet.BalanceType.AVAILABLE).getValue())
+                throw new TransactionErrorException("The amount of tokens to send is higher than our current balance. " + Coin.valueOf(fermatTransactionBatch.getTotalFermats()).toFriendlyString() + "/" + Coin.valueOf(network.getFermatWallet().getBalance(Wallet.BalanceType.AVAILABLE).getValue()).toFriendlyString());
+
+            // create bitcoin transactions. Each plan is funded by the change of the previous one.
+            List<List<Transaction>> planTransactions = new ArrayList<>();
+            TransactionOutput fundingOutput = null;
+            for (int i = 0; i < plans.size(); i++){
+                TransactionBuilder transactionBuilder;
+                if (i == 0)
+                    transactionBuilder = new TransactionBuilder(context, network.getGenesisTransaction().getHash(), network.getFermatWallet(), planOutputs.get(i));
+                else if (fundingOutput != null)
+                    transactionBuilder = new TransactionBuilder(fundingOutput, network.getFermatWallet(), planOutputs.get(i));
+                else
+                    throw new TransactionErrorException("No funds left for " + plans.get(i).getInputFile().getName() + ". Previous plans distributed everything.");
+
+                PhaseTimer buildTimer = Telemetry.start(Telemetry.TRANSACTION_BUILD);
+                for (FermatTransaction fermatTransaction : planOutputs.get(i)){
+                    transactionBuilder.addFermatTransaction(fermatTransaction);
+                }
+                buildTimer.stop(planOutputs.get(i).size());
+
+                // completes the transactions
+                PhaseTimer completionTimer = Telemetry.start(Telemetry.TRANSACTION_COMPLETION);
+                transactionBuilder.completeTransaction();
+                completionTimer.stop(transactionBuilder.getTransactions().size());
+                fundingOutput = transactionBuilder.getChangeOutput();
+
+                planTransactions.add(transactionBuilder.getTransactions());
+                transactions.addAll(transactionBuilder.getTransactions());
+            }
 
             //show balances and wait for confirmation
             Coin currentBalance = network.getFermatWallet().getBalance(Wallet.BalanceType.AVAILABLE);
             System.out.println("Current Premine balance: " + currentBalance.toFriendlyString());
-            System.out.println("Confirm that you want to send: " + Coin.valueOf(fermatTransactionBuilder.getTotalFermats()).toFriendlyString());
+            System.out.println("Confirm that you want to send: " + Coin.valueOf(fermatTransactionBatch.getTotalFermats()).toFriendlyString() + " on " + transactions.size() + " transaction(s)");
             waitForResponse();
-            network.broadcast(transactionBuilder.getTransaction());
 
-            //log Execution On File
-            executionLogger = new ExecutionLogger(fermatTransactionBuilder, transactionBuilder.getTransaction());
-            executionLogger.saveOutput();
-            System.out.println("Execution output stored at " + executionLogger.getOutputFile().toString());
+            // the plans and their signed transactions are on disk before anything is broadcasted, with a single sync.
+            try (PhaseTimer journalTimer = Telemetry.start(Telemetry.EXECUTION_JOURNAL)) {
+                for (int i = 0; i < plans.size(); i++)
+                    journal.appendPlan(plans.get(i), planOutputs.get(i), planTransactions.get(i));
+                journal.sync();
+            } catch (IOException e) {
+                throw new TransactionErrorException("Unable to write the execution journal " + journal.getFile().getAbsolutePath() + ". Nothing was broadcasted.", e);
+            }
+
+            for (List<FermatTransaction> outputTransactions : planOutputs)
+                historyRecorder.addPlan(outputTransactions);
+
+            // each transaction spends the change of the previous one, so they are queued in order.
+            List<BroadcastHandle> broadcastHandles = new ArrayList<>();
+            PhaseTimer broadcastTimer = Telemetry.start(Telemetry.BROADCAST);
+            for (Transaction transaction : transactions){
+                System.out.println("Broadcasting transaction " + transaction.getHashAsString() + " ...");
+                broadcastHandles.add(network.broadcastAsync(transaction));
+            }
+            network.awaitBroadcasts(broadcastHandles);
+            broadcastTimer.stop(broadcastHandles.size());
+            System.out.println(broadcastHandles.size() + " transaction(s) broadcasted sucessfully");
+
+            if (cmd.hasOption("w")){
+                System.out.println("Waiting for " + cmd.getOptionValue("w") + " confirmation(s)...");
+                PhaseTimer confirmationTimer = Telemetry.start(Telemetry.CONFIRMATION);
+                network.awaitConfirmations(broadcastHandles);
+                confirmationTimer.stop(broadcastHandles.size());
+                System.out.println("Transactions confirmed.");
+            }
+
+            // the journal and the history got each transaction as it was sent
+            try (PhaseTimer journalTimer = Telemetry.start(Telemetry.EXECUTION_JOURNAL)) {
+                journal.close();
+                history.close();
+            }
+            System.out.println("Execution journal stored at " + journal.getFile().toString());
         } catch (IOException ioexception){
-            System.err.println("There was an error saving this execution on file but the transaction was already broadcasted.\nStore this information!\n");
-            System.err.println(executionLogger.getOutput());
+            System.err.println("There was an error closing the execution journal but the transactions were already broadcasted.\nStore this information!\n");
+            for (Transaction transaction : transactions)
+                System.err.println(transaction.toString());
+            network.shutdown();
             System.exit(-1);
         }catch (Exception e) {
             e.printStackTrace();
-            if (transactionBuilder != null)
-                System.err.println(transactionBuilder.getTransaction().toString());
+            for (Transaction transaction : transactions)
+                System.err.println(transaction.toString());
+            if (network != null)
+                network.shutdown();
             System.exit(-1);
         }
 
         //good bye
+        network.shutdown();
         System.exit(0);
     }
 
+    /**
+     * enables the telemetry of the phases, which is shown and stored on the passed file when the process ends.
+     * @param reportFile
+     */
+    private static void startProfiling(final File reportFile) {
+        Telemetry.enable();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println();
+                System.out.println(Telemetry.getReport());
+                try {
+                    Telemetry.writeReport(reportFile);
+                    System.out.println("Profile stored at " + reportFile.getAbsolutePath());
+                } catch (IOException e) {
+                    System.err.println("Unable to store the profile at " + reportFile.getAbsolutePath());
+                }
+            }
+        }, "Profile report"));
+    }
+
+    /**
+     * shows the past payments to the passed address, or the rows paid by the passed transaction hash.
+     * @param value an address or a transaction hash
+     */
+    private static void queryHistory(String value) {
+        HistoryStore history = new HistoryStore(HistoryStore.getHistoryDirectory(getStoreDirectory(), networkParameters));
+        try {
+            history.open();
+
+            if (value.matches("[0-9a-fA-F]{64}")){
+                List<HistoryRow> rows = history.getRows(Sha256Hash.wrap(value));
+                System.out.println(rows.size() + " row(s) paid by transaction " + value);
+                for (HistoryRow row : rows)
+                    System.out.println(row.getAlias() + "," + row.getAddress() + "," + Coin.valueOf(row.getFermats()).toPlainString() + "," + row.getDaysForPayment());
+            } else {
+                List<HistoryEntry> payments = history.getPayments(Address.fromBase58(networkParameters, value));
+                System.out.println(payments.size() + " payment(s) to " + value);
+                for (HistoryEntry payment : payments){
+                    System.out.println(payment.getTransactionHash() + ":" + payment.getVout() + " " + Coin.valueOf(payment.getFermats()).toFriendlyString()
+                            + (payment.isTimeConstrained() ? " locked until " + new Date(payment.getUnlockTime()) + " - redeem script " + Hex.toHexString(payment.getRedeemScript()) : ""));
+                }
+            }
+            history.close();
+        } catch (AddressFormatException e) {
+            System.err.println(value + " is not a valid address on network " + networkParameters.getPaymentProtocolId() + " nor a transaction hash.");
+            System.exit(-1);
+        } catch (IOException e) {
+            System.err.println("Unable to read the distribution history at " + history.getDirectory().getAbsolutePath() + ": " + e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * shows the rows that pay the same address, amount and days for payment as a past distribution.
+     * @param rows the rows of all the input files
+     */
+    private static void checkDuplicatePayments(List<FermatTransaction> rows) {
+        HistoryStore history = new HistoryStore(HistoryStore.getHistoryDirectory(getStoreDirectory(), networkParameters));
+        try {
+            PhaseTimer duplicateTimer = Telemetry.start(Telemetry.DUPLICATE_CHECK);
+            history.open();
+            addFromJournal(history);
+            List<DuplicatePayment> duplicates = history.findDuplicates(rows);
+            history.close();
+            duplicateTimer.stop(rows.size());
+
+            if (duplicates.isEmpty())
+                return;
+
+            System.out.println();
+            System.out.println("WARNING: " + duplicates.size() + " row(s) were already paid on previous distributions:");
+            for (int i = 0; i < duplicates.size() && i < MAX_DUPLICATES_SHOWN; i++)
+                System.out.println(duplicates.get(i).toString());
+            if (duplicates.size() > MAX_DUPLICATES_SHOWN)
+                System.out.println("... and " + (duplicates.size() - MAX_DUPLICATES_SHOWN) + " more. Use -q with an address or transaction hash for details.");
+        } catch (IOException e) {
+            System.err.println("Unable to check the rows against the distribution history at " + history.getDirectory().getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * adds to the history the transactions of previous executions that were sent but not added, like the ones sent
+     * before a failure or a crash.
+     * @param history the open history
+     */
+    private static void addFromJournal(HistoryStore history) {
+        try {
+            int added = history.addFromJournal(ExecutionJournal.DEFAULT_FILE, networkParameters);
+            if (added > 0)
+                System.out.println(added + " transaction(s) sent on previous executions added to the distribution history from the execution journal.");
+        } catch (IOException e) {
+            System.err.println("Unable to add the sent transactions of the execution journal " + ExecutionJournal.DEFAULT_FILE.getAbsolutePath() + " to the distribution history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * the directory where the blockchain, wallet snapshot and history are kept.
+     * @return
+     */
+    private static File getStoreDirectory() {
+        return new File(cmd.hasOption("s") ? cmd.getOptionValue("s") : ".");
+    }
+
+    /**
+     * creates the network with the options passed on the command line.
+     * @param context
+     * @param privateKey
+     * @return the network, not initialized yet.
+     */
+    private static FermatNetwork createNetwork(ExecutionContext context, String privateKey) {
+        FermatNetwork network = new FermatNetwork(context, privateKey);
+        if (cmd.hasOption("s"))
+            network.setStoreDirectory(new File(cmd.getOptionValue("s")));
+        if (cmd.hasOption("k"))
+            network.setCheckpointsFile(new File(cmd.getOptionValue("k")));
+        if (cmd.hasOption("b"))
+            network.setKeyCreationTime(Long.parseLong(cmd.getOptionValue("b")));
+        if (cmd.hasOption("e")){
+            for (String peer : cmd.getOptionValue("e").split(","))
+                network.addPeer(getPeerAddress(peer));
+        }
+        if (cmd.hasOption("m"))
+            network.setMetricsFile(new File(cmd.getOptionValue("m")));
+        if (cmd.hasOption("o"))
+            network.setMaxOutstandingBroadcasts(Integer.parseInt(cmd.getOptionValue("o")));
+        if (cmd.hasOption("w"))
+            network.setConfirmationDepth(Integer.parseInt(cmd.getOptionValue("w")));
+        return network;
+    }
+
+    /**
+     * broadcasts again the transactions of a previous execution that were not confirmed.
+     * @param network an initialized network
+     * @return true if there are no transactions of previous executions waiting for confirmation.
+     * @throws TransactionErrorException
+     */
+    private static boolean resumePendingBroadcasts(FermatNetwork network) throws TransactionErrorException {
+        List<BroadcastHandle> pendingHandles = null;
+        if (network.hasPendingBroadcasts())
+            pendingHandles = network.resumePendingBroadcasts();
+
+        // dead transactions are reported only once, they are not broadcasted again.
+        for (String hash : network.getDeadBroadcasts())
+            System.err.println("Transaction " + hash + " of a previous execution was double spent and will never confirm. Its payments were not made.");
+
+        // failed ones were sent, so they may still confirm. Never pay their rows again before checking them.
+        for (String hash : network.getUnknownBroadcasts())
+            System.err.println("Transaction " + hash + " of a previous execution was not announced by peers. Its payments are unknown, check its confirmations. It is broadcasted again and followed until it confirms.");
+
+        if (pendingHandles == null)
+            return true;
+
+        if (!pendingHandles.isEmpty()){
+            System.out.println("Resuming " + pendingHandles.size() + " transaction(s) not confirmed on a previous execution...");
+            network.awaitBroadcasts(pendingHandles);
+            if (!cmd.hasOption("w"))
+                return false;
+
+            network.awaitConfirmations(pendingHandles);
+        }
+        System.out.println("Transactions of the previous execution are confirmed.");
+        return true;
+    }
+
+    /**
+     * connects to the network and serves the distribution API until the process is stopped.
+     * @param context the settings shared by all the plans. Each plan starts at the time it is received.
+     * @param privateKey
+     * @param port
+     */
+    private static void runDaemon(ExecutionContext context, String privateKey, int port) {
+        final FermatNetwork network = createNetwork(context, privateKey);
+        try {
+            network.initialize();
+
+            // opened before resuming, so resumed transactions are recorded when sent
+            final DistributionDaemon daemon = new DistributionDaemon(context, network, cmd.hasOption("a"));
+            daemon.open();
+            if (!resumePendingBroadcasts(network)){
+                System.out.println("Pending transactions broadcasted. Start the daemon again once they are confirmed.");
+                daemon.stop();
+                network.shutdown();
+                System.exit(0);
+            }
+
+            daemon.start(port);
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    daemon.stop();
+                    network.shutdown();
+                }
+            }, "Daemon shutdown"));
+
+            System.out.println("Distribution daemon listening on http://localhost:" + port + "/");
+        } catch (Exception e) {
+            e.printStackTrace();
+            network.shutdown();
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * gets the address of a peer in host:port format. The port of the network is used if none is specified.
+     * @param value
+     * @return
+     */
+    private static InetSocketAddress getPeerAddress(String value) {
+        String host = value.trim();
+        int port = networkParameters.getPort();
+
+        int separator = host.lastIndexOf(':');
+        if (separator > 0){
+            port = Integer.parseInt(host.substring(separator + 1));
+            host = host.substring(0, separator);
+        }
+        return new InetSocketAddress(host, port);
+    }
+
     private static ECKey getPrivateKey(String value) throws AddressFormatException {
         return new DumpedPrivateKey(networkParameters, value).getKey();
     }
@@ -208,16 +609,19 @@ public class Main {
      * @return
      */
     private static boolean isMandatoryArguments() {
-        if (cmd.hasOption("h"))
+        if (cmd.hasOption("h") || cmd.hasOption("j") || cmd.hasOption("q"))
             return true;
 
-        if (cmd.hasOption("g")){
+        if (cmd.hasOption("g") || cmd.hasOption("c")){
             if (cmd.hasOption("i"))
                 return true;
             else
                 return false;
         }
 
+        // the daemon receives the input files through its API
+        if (cmd.hasOption("l"))
+            return cmd.hasOption("p");
 
         if (!cmd.hasOption("p") || !cmd.hasOption("i"))
             return false;
@@ -233,10 +637,10 @@ public class Main {
         System.out.println(System.lineSeparator());
         TransactionBuilder iopBuilder = new TransactionBuilder();
 
-        for (FermatTransaction fermatTransaction : fermatTransactionBuilder.getFermatTransactions()){
+        for (FermatTransaction fermatTransaction : fermatTransactionBatch.getFermatTransactions()){
             if (fermatTransaction.isTimeContrained()){
                 iopBuilder.addTimeConstrainedTransaction(fermatTransaction);
-                System.out.println(fermatTransaction.toString() + " - " + fermatTransaction.getRedeemScript() + " (" + Hex.toHexString(fermatTransaction.getRedeemScript().getProgram()) + ")");
+                System.out.println(fermatTransaction.toString() + " - " + fermatTransaction.getRedeemScript() + " (" + Hex.toHexString(fermatTransaction.getRedeemScriptProgram()) + ")");
             }
         }
     }
@@ -290,22 +694,6 @@ public class Main {
         }
     }
 
-    /**
-     * returns the epoc time of the start of the process
-     * @return
-     */
-    public static long getEpocTime(){
-        return EPOC_TIME;
-    }
-
-    /**
-     * returns the flag that indicates if this is a test execution
-     * @return
-     */
-    public static boolean isIsTestExecution(){
-        return isTestExecution;
-    }
-
     /**
      * adds all the options
      * @return
@@ -316,7 +704,7 @@ public class Main {
         optPrivKey.setRequired(false);
         options.addOption(optPrivKey);
 
-        Option optInputFile = new Option("i", "input", true, ".cvs input file to generate fermat transaction.");
+        Option optInputFile = new Option("i", "input", true, ".cvs input file to generate fermat transaction. Several files or directories can be separated by commas.");
         optInputFile.setRequired(false);
         options.addOption(optInputFile);
 
@@ -342,6 +730,62 @@ public class Main {
         optTest.setRequired(false);
         options.addOption(optTest);
 
+        Option optAggregate = new Option("a", "aggregate", false, "Merges the rows with the same address and days for payment into a single output.");
+        optAggregate.setRequired(false);
+        options.addOption(optAggregate);
+
+        Option optStore = new Option("s", "store", true, "Directory where the blockchain headers and the wallet snapshot are kept between executions. Default is the working directory.");
+        optStore.setRequired(false);
+        options.addOption(optStore);
+
+        Option optCheckpoints = new Option("k", "checkpoints", true, "Checkpoints file used with -b to skip the old blocks. None are shipped for any network.");
+        optCheckpoints.setRequired(false);
+        options.addOption(optCheckpoints);
+
+        Option optBirthday = new Option("b", "birthday", true, "Creation time of the private key (Epoch Time in seconds). Blockchain download starts at the newest checkpoint before it.");
+        optBirthday.setRequired(false);
+        options.addOption(optBirthday);
+
+        Option optCompile = new Option("c", "compile", true, "Validates the input file, stores it as a compiled plan on the specified file and exits. A compiled plan can be used as input file.");
+        optCompile.setRequired(false);
+        options.addOption(optCompile);
+
+        Option optPeers = new Option("e", "peers", true, "Comma separated list of peers (host:port) to connect to instead of the known and discovered ones.");
+        optPeers.setRequired(false);
+        options.addOption(optPeers);
+
+        Option optDaemon = new Option("l", "listen", true, "Runs as a daemon that keeps connected to the network and receives the input files through an HTTP API on the specified localhost port.");
+        optDaemon.setRequired(false);
+        options.addOption(optDaemon);
+
+        Option optMetrics = new Option("m", "metrics", true, "Writes the metrics of the network connection and broadcasts on exit to the specified file. Files ending in .prom are written in Prometheus text format, JSON otherwise.");
+        optMetrics.setRequired(false);
+        options.addOption(optMetrics);
+
+        Option optOutstanding = new Option("o", "outstanding", true, "Maximum amount of transactions waiting to be announced by peers at the same time. Default is 10.");
+        optOutstanding.setRequired(false);
+        options.addOption(optOutstanding);
+
+        Option optConfirmations = new Option("w", "wait", true, "Waits until the broadcasted transactions have the specified amount of confirmations before exiting.");
+        optConfirmations.setRequired(false);
+        options.addOption(optConfirmations);
+
+        Option optProfile = new Option("f", "profile", true, "Measures the time, CPU and allocated bytes of each phase of the execution. They are shown on exit and stored on the specified file in JSON format.");
+        optProfile.setRequired(false);
+        options.addOption(optProfile);
+
+        Option optJournal = new Option("j", "journal", true, "Shows the content of the specified execution journal and exits.");
+        optJournal.setRequired(false);
+        options.addOption(optJournal);
+
+        Option optQuery = new Option("q", "query", true, "Shows the past payments to the specified address, or the rows paid by the specified transaction hash, and exits. Uses the history kept on the store directory.");
+        optQuery.setRequired(false);
+        options.addOption(optQuery);
+
+        Option optReport = new Option("r", "report", true, "Stores the full summary, with every user and unlock date, on the specified file. Only the biggest users are shown on screen.");
+        optReport.setRequired(false);
+        options.addOption(optReport);
+
         return options;
 
     }
@@ -0,0 +1,91 @@
+package org.fermat;
+
+import java.util.Calendar;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Unlock times of the days and months after the start of a job, computed once with the calendar of the process
+ * so time constrained outputs don't need a Calendar each.
+ * Days are added as Calendar.DATE does, keeping the local time of the start across daylight saving changes.
+ * Months are counted from a day after the start, and computed the first time that day is used.
+ * Days and months beyond the table are computed with a Calendar.
+ */
+public final class UnlockTable {
+    // class constants
+    private static final int TABLE_DAYS = 20 * 366;
+    private static final int TABLE_MONTHS = 20 * 12;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final long epochTime;
+    private final long[] unlockTimes; // by days after the start
+    private final ConcurrentMap<Integer, int[]> monthDays; // by the day months are counted from
+
+    /**
+     * constructor
+     * @param epochTime the start of the job, in milliseconds
+     */
+    UnlockTable(long epochTime) {
+        this.epochTime = epochTime;
+        this.unlockTimes = new long[TABLE_DAYS + 1];
+        this.monthDays = new ConcurrentHashMap<>();
+
+        // each entry is added to the start, like a single Calendar.add would do
+        Calendar calendar = Calendar.getInstance();
+        for (int days = 0; days <= TABLE_DAYS; days++){
+            calendar.setTimeInMillis(epochTime);
+            calendar.add(Calendar.DATE, days);
+            unlockTimes[days] = calendar.getTimeInMillis();
+        }
+    }
+
+    private int computeMonthDays(Calendar calendar, int fromDays, int months) {
+        calendar.setTimeInMillis(epochTime);
+        long startLocalTime = epochTime + calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET);
+
+        calendar.add(Calendar.DATE, fromDays);
+        calendar.add(Calendar.MONTH, months);
+        long localTime = calendar.getTimeInMillis() + calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET);
+        return (int) Math.round((localTime - startLocalTime) / (double) DAY_MILLIS);
+    }
+
+    /**
+     * the epoch time after the passed days.
+     * @param days
+     * @return epoch time in milliseconds
+     */
+    public long getUnlockTime(int days) {
+        if (days >= 0 && days <= TABLE_DAYS)
+            return unlockTimes[days];
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(epochTime);
+        calendar.add(Calendar.DATE, days);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * the days from the start of the job to the same day of the month, the passed amount of months after the day
+     * that is fromDays after the start. Days that don't exist on that month move to its last day, like Calendar.add does.
+     * @param fromDays days after the start the months are counted from
+     * @param months
+     * @return
+     */
+    public int getMonthDays(int fromDays, int months) {
+        if (fromDays < 0 || fromDays > TABLE_DAYS || months < 0 || months > TABLE_MONTHS)
+            return computeMonthDays(Calendar.getInstance(), fromDays, months);
+
+        int[] days = monthDays.get(fromDays);
+        if (days == null){
+            Calendar calendar = Calendar.getInstance();
+            days = new int[TABLE_MONTHS + 1];
+            for (int i = 0; i <= TABLE_MONTHS; i++)
+                days[i] = computeMonthDays(calendar, fromDays, i);
+
+            int[] previous = monthDays.putIfAbsent(fromDays, days);
+            if (previous != null)
+                days = previous;
+        }
+        return days[months];
+    }
+}
@@ -0,0 +1,80 @@
+package org.fermat.blockchain;
+
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Preconditions;
+import org.fermat.Main;
+import org.fermatj.core.CheckpointManager;
+import org.fermatj.core.NetworkParameters;
+import org.fermatj.store.BlockStore;
+import org.fermatj.store.BlockStoreException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Starts an empty block store from the newest checkpoint before the creation time of the wallet keys,
+ * so the headers before it are not downloaded.
+ * Checkpoints are read from the passed file or, if none, from the resource of the network at
+ * /org/fermat/blockchain/checkpoints/[network].checkpoints when one was added to the jar.
+ */
+public class BlockchainCheckpoints {
+    // class constants
+    private static final String RESOURCE_PATH = "/org/fermat/blockchain/checkpoints/";
+    private static final String FILE_EXTENSION = ".checkpoints";
+    private static final long ONE_WEEK_SECONDS = 60 * 60 * 24 * 7; // margin taken by the CheckpointManager
+
+    private static final Logger logger = Main.logger;
+
+    private BlockchainCheckpoints() {
+    }
+
+    /**
+     * applies the checkpoints to the passed block store, if it is empty.
+     * @param blockStore
+     * @param networkParameters
+     * @param checkpointsFile a custom checkpoints file, or null to use the resource of the network.
+     * @param keyCreationTime the creation time of the wallet keys, in seconds.
+     * @return true if the chain head was moved to a checkpoint
+     * @throws BlockStoreException
+     * @throws IOException if the checkpoints can't be read
+     */
+    public static boolean apply(BlockStore blockStore, NetworkParameters networkParameters, File checkpointsFile, long keyCreationTime) throws BlockStoreException, IOException {
+        Preconditions.checkNotNull(blockStore);
+        Preconditions.checkNotNull(networkParameters);
+
+        // only a new store can start from a checkpoint
+        if (blockStore.getChainHead().getHeight() > 0)
+            return false;
+
+        // without a creation time, all blocks may have transactions of our keys.
+        if (keyCreationTime <= ONE_WEEK_SECONDS)
+            return false;
+
+        // a creation time was given to skip the old blocks, so a missing file is not silently ignored.
+        InputStream checkpoints = openCheckpoints(networkParameters, checkpointsFile);
+        if (checkpoints == null){
+            logger.warn("No checkpoints found for network " + networkParameters.getPaymentProtocolId() + " at " + getResourcePath(networkParameters) + ". The blockchain is downloaded from the genesis block. Provide a checkpoints file with -k.");
+            return false;
+        }
+
+        try {
+            CheckpointManager.checkpoint(networkParameters, checkpoints, blockStore, keyCreationTime);
+        } finally {
+            checkpoints.close();
+        }
+        return true;
+    }
+
+    private static InputStream openCheckpoints(NetworkParameters networkParameters, File checkpointsFile) throws IOException {
+        if (checkpointsFile != null)
+            return new FileInputStream(checkpointsFile);
+
+        return BlockchainCheckpoints.class.getResourceAsStream(getResourcePath(networkParameters));
+    }
+
+    private static String getResourcePath(NetworkParameters networkParameters) {
+        return RESOURCE_PATH + networkParameters.getPaymentProtocolId() + FILE_EXTENSION;
+    }
+}
@@ -2,46 +2,139 @@ package org.fermat.blockchain;
 
 import org.fermatj.core.*;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by rodrigo on 7/22/16.
+ * Collects the metrics of the connection to the network: time to the first peer, blocks, bytes and disconnections
+ * of each peer, blocks left to download and how long broadcasted transactions take to be announced by peers.
+ * Shows a progress line while the blockchain is downloaded and writes the metrics as JSON or Prometheus text.
+ * Must be registered on the PeerGroup with Threading.SAME_THREAD, peers don't pass messages to other listeners.
  */
-public class BlockchainEvents implements PeerEventListener {
+public class BlockchainEvents implements PeerEventListener, BroadcastPipeline.Listener {
+    // class constants
+    private static final long PROGRESS_INTERVAL_SECONDS = 5;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * metrics of a single peer
+     */
+    private static class PeerMetrics {
+        private long connectedMillis;
+        private long firstBlockMillis;
+        private long lastBlockMillis;
+        private long blocks;
+        private long bytesReceived;
+        private int disconnects;
+
+        private double getBlocksPerSecond() {
+            if (blocks < 2 || lastBlockMillis == firstBlockMillis)
+                return 0;
+            return blocks * 1000.0 / (lastBlockMillis - firstBlockMillis);
+        }
+    }
+
+    // class variables
+    private final long startMillis;
+    private final Map<String, PeerMetrics> peers;
+    private long firstPeerMillis;
+    private int connectedPeers;
+    private int disconnects;
+    private long blocksDownloaded;
+    private long bytesReceived;
+    private int blocksLeft;
+    private long downloadStartMillis;
+    private long downloadEndMillis;
+    private int transactionsReceived;
+    private final List<Long> propagationMillis;
+    private int broadcastsConfirmed;
+    private int broadcastsFailed;
+    private ScheduledExecutorService progressExecutor;
+
+    /**
+     * constructor
+     */
+    public BlockchainEvents() {
+        this.startMillis = System.currentTimeMillis();
+        this.peers = new LinkedHashMap<>();
+        this.propagationMillis = new ArrayList<>();
+    }
+
     @Override
     public void onPeersDiscovered(Set<PeerAddress> set) {
 
     }
 
     @Override
-    public void onBlocksDownloaded(Peer peer, Block block, FilteredBlock filteredBlock, int i) {
+    public synchronized void onBlocksDownloaded(Peer peer, Block block, FilteredBlock filteredBlock, int i) {
+        long now = System.currentTimeMillis();
+        PeerMetrics metrics = getPeerMetrics(peer);
+        if (metrics.blocks == 0)
+            metrics.firstBlockMillis = now;
+        metrics.lastBlockMillis = now;
+        metrics.blocks++;
 
+        blocksDownloaded++;
+        blocksLeft = i;
+        if (i == 0 && downloadEndMillis == 0)
+            downloadEndMillis = now;
     }
 
     @Override
-    public void onChainDownloadStarted(Peer peer, int i) {
+    public synchronized void onChainDownloadStarted(Peer peer, int i) {
         System.out.println("download started from peer " + peer.toString());
+        downloadStartMillis = System.currentTimeMillis();
+        downloadEndMillis = 0;
+        blocksLeft = i;
     }
 
     @Override
-    public void onPeerConnected(Peer peer, int i) {
+    public synchronized void onPeerConnected(Peer peer, int i) {
         System.out.println("Connected to peer " + peer.toString());
+        long now = System.currentTimeMillis();
+        if (firstPeerMillis == 0)
+            firstPeerMillis = now;
+
+        getPeerMetrics(peer).connectedMillis = now;
+        connectedPeers = i;
     }
 
     @Override
-    public void onPeerDisconnected(Peer peer, int i) {
-
+    public synchronized void onPeerDisconnected(Peer peer, int i) {
+        getPeerMetrics(peer).disconnects++;
+        disconnects++;
+        connectedPeers = i;
     }
 
     @Override
-    public Message onPreMessageReceived(Peer peer, Message message) {
-        return null;
+    public synchronized Message onPreMessageReceived(Peer peer, Message message) {
+        int size = message.getMessageSize();
+        getPeerMetrics(peer).bytesReceived += size;
+        bytesReceived += size;
+
+        // returning null would make the peer discard the message
+        return message;
     }
 
     @Override
-    public void onTransaction(Peer peer, Transaction transaction) {
-
+    public synchronized void onTransaction(Peer peer, Transaction transaction) {
+        transactionsReceived++;
     }
 
     @Override
@@ -49,4 +142,219 @@ public class BlockchainEvents implements PeerEventListener {
         return null;
     }
 
+    @Override
+    public synchronized void onStateChanged(BroadcastHandle handle) {
+        switch (handle.getState()){
+            case SEEN_BY_PEERS:
+                if (handle.getPropagationMillis() > 0)
+                    propagationMillis.add(handle.getPropagationMillis());
+                break;
+            case CONFIRMED:
+                broadcastsConfirmed++;
+                break;
+            case FAILED:
+            case DEAD:
+                broadcastsFailed++;
+                break;
+        }
+    }
+
+    private PeerMetrics getPeerMetrics(Peer peer) {
+        String address = peer.getAddress().toSocketAddress().toString();
+        PeerMetrics metrics = peers.get(address);
+        if (metrics == null){
+            metrics = new PeerMetrics();
+            peers.put(address, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * starts showing a progress line of the blockchain download.
+     */
+    public void startProgress() {
+        if (progressExecutor != null)
+            return;
+
+        progressExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Blockchain download progress");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        progressExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                String progress = getProgress();
+                if (progress != null)
+                    System.out.println(progress);
+            }
+        }, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * stops the progress line.
+     */
+    public void stopProgress() {
+        if (progressExecutor == null)
+            return;
+
+        progressExecutor.shutdownNow();
+        progressExecutor = null;
+    }
+
+    public synchronized long getBlocksDownloaded() {
+        return blocksDownloaded;
+    }
+
+    /**
+     * the progress of the blockchain download, with the estimated time left.
+     * @return the progress, or null if the download didn't start.
+     */
+    public synchronized String getProgress() {
+        if (downloadStartMillis == 0){
+            if (firstPeerMillis == 0)
+                return "Waiting for peers...";
+            return null;
+        }
+
+        double seconds = (System.currentTimeMillis() - downloadStartMillis) / 1000.0;
+        double blocksPerSecond = seconds > 0 ? blocksDownloaded / seconds : 0;
+
+        StringBuilder progress = new StringBuilder();
+        progress.append("Downloaded ").append(blocksDownloaded).append(" blocks, ").append(blocksLeft).append(" left");
+        progress.append(String.format(" (%.1f blocks/sec, %d KB received, %d peers)", blocksPerSecond, bytesReceived / 1024, connectedPeers));
+        if (blocksLeft > 0 && blocksPerSecond > 0){
+            long eta = (long) (blocksLeft / blocksPerSecond);
+            progress.append(String.format(" ETA %d:%02d:%02d", eta / 3600, (eta / 60) % 60, eta % 60));
+        }
+        return progress.toString();
+    }
+
+    /**
+     * writes the collected metrics to the passed file. Files ending in .prom are written in Prometheus text
+     * format and any other as JSON.
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void writeMetrics(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), CHARSET)) {
+            if (file.getName().endsWith(".prom"))
+                writePrometheus(writer);
+            else
+                writeJson(writer);
+        }
+    }
+
+    private long getTimeToFirstPeerMillis() {
+        return firstPeerMillis == 0 ? -1 : firstPeerMillis - startMillis;
+    }
+
+    private long getDownloadMillis() {
+        if (downloadStartMillis == 0)
+            return -1;
+        return (downloadEndMillis == 0 ? System.currentTimeMillis() : downloadEndMillis) - downloadStartMillis;
+    }
+
+    /**
+     * the propagation latency at the passed percentile, or -1 if nothing was broadcasted.
+     */
+    private long getPropagationPercentile(double percentile) {
+        if (propagationMillis.isEmpty())
+            return -1;
+
+        List<Long> sorted = new ArrayList<>(propagationMillis);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    private void writeJson(Writer writer) throws IOException {
+        writer.write("{\n");
+        writer.write("  \"timeToFirstPeerMillis\": " + getTimeToFirstPeerMillis() + ",\n");
+        writer.write("  \"downloadMillis\": " + getDownloadMillis() + ",\n");
+        writer.write("  \"blocksDownloaded\": " + blocksDownloaded + ",\n");
+        writer.write("  \"blocksLeft\": " + blocksLeft + ",\n");
+        writer.write("  \"bytesReceived\": " + bytesReceived + ",\n");
+        writer.write("  \"disconnects\": " + disconnects + ",\n");
+        writer.write("  \"transactionsReceived\": " + transactionsReceived + ",\n");
+        writer.write("  \"broadcast\": {\n");
+        writer.write("    \"propagated\": " + propagationMillis.size() + ",\n");
+        writer.write("    \"confirmed\": " + broadcastsConfirmed + ",\n");
+        writer.write("    \"failed\": " + broadcastsFailed + ",\n");
+        writer.write("    \"propagationMillisP50\": " + getPropagationPercentile(0.5) + ",\n");
+        writer.write("    \"propagationMillisP99\": " + getPropagationPercentile(0.99) + ",\n");
+        writer.write("    \"propagationMillisMax\": " + getPropagationPercentile(1) + "\n");
+        writer.write("  },\n");
+        writer.write("  \"peers\": [");
+
+        boolean first = true;
+        for (Map.Entry<String, PeerMetrics> entry : peers.entrySet()){
+            PeerMetrics metrics = entry.getValue();
+            writer.write(first ? "\n" : ",\n");
+            writer.write("    {\"address\": \"" + entry.getKey().replace("\\", "\\\\").replace("\"", "\\\"") + "\"" +
+                    ", \"connectedAfterMillis\": " + (metrics.connectedMillis == 0 ? -1 : metrics.connectedMillis - startMillis) +
+                    ", \"blocks\": " + metrics.blocks +
+                    ", \"blocksPerSecond\": " + String.format(Locale.ROOT, "%.3f", metrics.getBlocksPerSecond()) +
+                    ", \"bytesReceived\": " + metrics.bytesReceived +
+                    ", \"disconnects\": " + metrics.disconnects + "}");
+            first = false;
+        }
+        writer.write(first ? "]\n" : "\n  ]\n");
+        writer.write("}\n");
+    }
+
+    private void writePrometheus(Writer writer) throws IOException {
+        writeMetric(writer, "iop_time_to_first_peer_seconds", "gauge", "Time from start until the first peer connected.", toSeconds(getTimeToFirstPeerMillis()));
+        writeMetric(writer, "iop_download_seconds", "gauge", "Duration of the blockchain download.", toSeconds(getDownloadMillis()));
+        writeMetric(writer, "iop_blocks_downloaded_total", "counter", "Blocks downloaded.", blocksDownloaded);
+        writeMetric(writer, "iop_blocks_left", "gauge", "Blocks left to download.", blocksLeft);
+        writeMetric(writer, "iop_received_bytes_total", "counter", "Bytes received from peers.", bytesReceived);
+        writeMetric(writer, "iop_disconnects_total", "counter", "Peer disconnections.", disconnects);
+        writeMetric(writer, "iop_broadcast_propagated_total", "counter", "Broadcasted transactions announced by peers.", propagationMillis.size());
+        writeMetric(writer, "iop_broadcast_confirmed_total", "counter", "Broadcasted transactions confirmed.", broadcastsConfirmed);
+        writeMetric(writer, "iop_broadcast_failed_total", "counter", "Broadcasted transactions that failed.", broadcastsFailed);
+
+        writer.write("# HELP iop_broadcast_propagation_seconds Time until a broadcasted transaction is announced by peers.\n");
+        writer.write("# TYPE iop_broadcast_propagation_seconds summary\n");
+        writer.write("iop_broadcast_propagation_seconds{quantile=\"0.5\"} " + toSeconds(getPropagationPercentile(0.5)) + "\n");
+        writer.write("iop_broadcast_propagation_seconds{quantile=\"0.99\"} " + toSeconds(getPropagationPercentile(0.99)) + "\n");
+        long propagationSum = 0;
+        for (long millis : propagationMillis)
+            propagationSum += millis;
+        writer.write("iop_broadcast_propagation_seconds_sum " + propagationSum / 1000.0 + "\n");
+        writer.write("iop_broadcast_propagation_seconds_count " + propagationMillis.size() + "\n");
+
+        writer.write("# HELP iop_peer_blocks_per_second Blocks per second received from each peer.\n");
+        writer.write("# TYPE iop_peer_blocks_per_second gauge\n");
+        for (Map.Entry<String, PeerMetrics> entry : peers.entrySet())
+            writer.write("iop_peer_blocks_per_second{peer=\"" + entry.getKey() + "\"} " + entry.getValue().getBlocksPerSecond() + "\n");
+
+        writer.write("# HELP iop_peer_received_bytes_total Bytes received from each peer.\n");
+        writer.write("# TYPE iop_peer_received_bytes_total counter\n");
+        for (Map.Entry<String, PeerMetrics> entry : peers.entrySet())
+            writer.write("iop_peer_received_bytes_total{peer=\"" + entry.getKey() + "\"} " + entry.getValue().bytesReceived + "\n");
+
+        writer.write("# HELP iop_peer_disconnects_total Disconnections of each peer.\n");
+        writer.write("# TYPE iop_peer_disconnects_total counter\n");
+        for (Map.Entry<String, PeerMetrics> entry : peers.entrySet())
+            writer.write("iop_peer_disconnects_total{peer=\"" + entry.getKey() + "\"} " + entry.getValue().disconnects + "\n");
+    }
+
+    /**
+     * unknown values are kept as -1
+     */
+    private double toSeconds(long millis) {
+        return millis < 0 ? -1 : millis / 1000.0;
+    }
+
+    private void writeMetric(Writer writer, String name, String type, String help, double value) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " " + type + "\n");
+        writer.write(name + " " + value + "\n");
+    }
+
 }
@@ -0,0 +1,208 @@
+package org.fermat.blockchain;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.fermatj.core.Transaction;
+import org.fermatj.core.TransactionConfidence;
+
+/**
+ * Tracks a transaction submitted to the BroadcastPipeline, from the moment it is queued until it reaches
+ * the requested confirmation depth. A handle lives across all the attempts made to broadcast its transaction.
+ */
+public class BroadcastHandle {
+    /**
+     * states of the broadcast. FAILED means peers didn't announce the transaction after all the attempts, it was
+     * sent and may still confirm. DEAD means a double spend was confirmed, so it never will.
+     */
+    public enum State {
+        QUEUED, SENT, SEEN_BY_PEERS, CONFIRMED, FAILED, DEAD
+    }
+
+    private final Transaction transaction;
+    private final int confirmationDepth;
+    private final SettableFuture<Transaction> broadcastFuture;
+    private final SettableFuture<Transaction> confirmationFuture;
+
+    private volatile State state;
+    private volatile int attempts;
+    private volatile int seenByPeers;
+    private volatile int depth;
+    private volatile Throwable error;
+    private volatile long sentTime;
+    private volatile long propagationMillis;
+
+    /**
+     * constructor
+     * @param transaction
+     * @param confirmationDepth the depth in blocks needed to consider the transaction confirmed
+     */
+    BroadcastHandle(Transaction transaction, int confirmationDepth) {
+        this.transaction = transaction;
+        this.confirmationDepth = confirmationDepth;
+        this.broadcastFuture = SettableFuture.create();
+        this.confirmationFuture = SettableFuture.create();
+        this.state = State.QUEUED;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * amount of peers that announced the transaction back to us.
+     * @return
+     */
+    public int getSeenByPeers() {
+        return seenByPeers;
+    }
+
+    /**
+     * amount of times the transaction was sent.
+     * @return
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getConfirmationDepth() {
+        return confirmationDepth;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * time between sending the transaction and peers announcing it, or zero if not yet propagated.
+     * @return
+     */
+    public long getPropagationMillis() {
+        return propagationMillis;
+    }
+
+    /**
+     * completes when the transaction was sent and announced by peers, or fails if it couldn't be broadcasted.
+     * @return
+     */
+    public ListenableFuture<Transaction> getBroadcastFuture() {
+        return broadcastFuture;
+    }
+
+    /**
+     * completes when the transaction reaches the confirmation depth.
+     * @return
+     */
+    public ListenableFuture<Transaction> getConfirmationFuture() {
+        return confirmationFuture;
+    }
+
+    /**
+     * true once the transaction is confirmed, dead or can't be broadcasted anymore.
+     * @return
+     */
+    public boolean isFinished() {
+        return state == State.CONFIRMED || state == State.FAILED || state == State.DEAD;
+    }
+
+    void onSent() {
+        sentTime = System.currentTimeMillis();
+        attempts++;
+        state = State.SENT;
+    }
+
+    void onPropagated() {
+        propagationMillis = System.currentTimeMillis() - sentTime;
+        if (state == State.SENT)
+            state = State.SEEN_BY_PEERS;
+
+        broadcastFuture.set(transaction);
+    }
+
+    /**
+     * the last attempt failed and the transaction waits to be sent again.
+     * @param throwable
+     */
+    void onRetry(Throwable throwable) {
+        error = throwable;
+        state = State.QUEUED;
+    }
+
+    void onFailed(Throwable throwable) {
+        error = throwable;
+        state = State.FAILED;
+        broadcastFuture.setException(throwable);
+        confirmationFuture.setException(throwable);
+    }
+
+    /**
+     * a double spend of the transaction was confirmed.
+     * @param throwable
+     */
+    void onDead(Throwable throwable) {
+        error = throwable;
+        state = State.DEAD;
+        broadcastFuture.setException(throwable);
+        confirmationFuture.setException(throwable);
+    }
+
+    /**
+     * the transaction was already confirmed when it was resumed from a previous execution.
+     */
+    void onConfirmed() {
+        state = State.CONFIRMED;
+        broadcastFuture.set(transaction);
+        confirmationFuture.set(transaction);
+    }
+
+    /**
+     * updates the state from the confidence of the transaction.
+     * @param confidence
+     * @return true if the transaction is confirmed or dead, so no more updates are needed.
+     */
+    boolean onConfidenceChanged(TransactionConfidence confidence) {
+        if (state == State.FAILED || state == State.DEAD)
+            return true;
+
+        seenByPeers = confidence.numBroadcastPeers();
+
+        switch (confidence.getConfidenceType()){
+            case BUILDING:
+                depth = confidence.getDepthInBlocks();
+                if (depth >= confirmationDepth){
+                    onConfirmed();
+                    return true;
+                }
+                if (state == State.SENT)
+                    state = State.SEEN_BY_PEERS;
+                break;
+
+            case DEAD:
+                onDead(new IllegalStateException("Transaction " + transaction.getHashAsString() + " is dead. A double spend was confirmed."));
+                return true;
+
+            default:
+                if (seenByPeers > 0 && state == State.SENT)
+                    state = State.SEEN_BY_PEERS;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "BroadcastHandle{" +
+                "transaction=" + transaction.getHashAsString() +
+                ", state=" + state +
+                ", seenByPeers=" + seenByPeers +
+                ", attempts=" + attempts +
+                ", depth=" + depth + "/" + confirmationDepth +
+                '}';
+    }
+}
@@ -0,0 +1,277 @@
+package org.fermat.blockchain;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.fermatj.core.PeerGroup;
+import org.fermatj.core.Transaction;
+import org.fermatj.core.TransactionBroadcast;
+import org.fermatj.core.TransactionConfidence;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non blocking broadcast of transactions. Submitted transactions are queued and sent in order, keeping at most
+ * a configurable amount of broadcasts waiting for peers at the same time.
+ * Each transaction is tracked with a BroadcastHandle until it reaches the confirmation depth. Failed attempts
+ * are sent again with exponential backoff, each time to the peers the PeerGroup selects for that broadcast.
+ */
+public class BroadcastPipeline {
+    // class constants
+    public static final int DEFAULT_MAX_OUTSTANDING = 10;
+    public static final long BROADCAST_TIMEOUT_SECONDS = 10;
+    public static final int MAX_ATTEMPTS = 6;
+    private static final long RETRY_BASE_SECONDS = 5;
+    private static final long RETRY_MAX_SECONDS = 300;
+
+    /**
+     * gets notified on every state change of the handles of this pipeline.
+     */
+    public interface Listener {
+        void onStateChanged(BroadcastHandle handle);
+    }
+
+    private final PeerGroup peerGroup;
+    private final int minBroadcastConnections;
+    private final LinkedList<BroadcastHandle> queue;
+    private final ScheduledExecutorService scheduler;
+    private final Object sendLock;
+
+    // class variables
+    private int maxOutstanding;
+    private int confirmationDepth;
+    private int outstanding;
+    private final List<Listener> listeners;
+
+    /**
+     * constructor
+     * @param peerGroup the connected peer group
+     * @param minBroadcastConnections peers needed to send a transaction
+     */
+    public BroadcastPipeline(PeerGroup peerGroup, int minBroadcastConnections) {
+        Preconditions.checkNotNull(peerGroup);
+
+        this.peerGroup = peerGroup;
+        this.minBroadcastConnections = minBroadcastConnections;
+        this.queue = new LinkedList<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.maxOutstanding = DEFAULT_MAX_OUTSTANDING;
+        this.confirmationDepth = 1;
+        this.sendLock = new Object();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Broadcast scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * sets how many broadcasts can be waiting for peers at the same time.
+     * @param maxOutstanding
+     */
+    public void setMaxOutstanding(int maxOutstanding) {
+        Preconditions.checkArgument(maxOutstanding > 0);
+        synchronized (this) {
+            this.maxOutstanding = maxOutstanding;
+        }
+        dispatch();
+    }
+
+    /**
+     * sets the depth in blocks at which submitted transactions are considered confirmed.
+     * @param confirmationDepth
+     */
+    public synchronized void setConfirmationDepth(int confirmationDepth) {
+        Preconditions.checkArgument(confirmationDepth > 0);
+        this.confirmationDepth = confirmationDepth;
+    }
+
+    public synchronized int getConfirmationDepth() {
+        return confirmationDepth;
+    }
+
+    /**
+     * adds a listener of state changes. Listeners are called before the transaction is sent, so they can persist it.
+     * They are never called while holding the lock of the pipeline, so they may call it back.
+     * @param listener
+     */
+    public void addListener(Listener listener) {
+        Preconditions.checkNotNull(listener);
+        listeners.add(listener);
+    }
+
+    /**
+     * queues the passed transaction for broadcasting and returns immediately.
+     * @param transaction
+     * @return the handle to follow the broadcast
+     */
+    public BroadcastHandle submit(Transaction transaction) {
+        Preconditions.checkNotNull(transaction);
+
+        BroadcastHandle handle = new BroadcastHandle(transaction, getConfirmationDepth());
+        notifyListener(handle);
+        synchronized (this) {
+            queue.add(handle);
+        }
+        dispatch();
+        return handle;
+    }
+
+    /**
+     * stops the pending timeouts and retries. Queued transactions are not sent.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * sends queued transactions while we are under the limit of outstanding broadcasts.
+     * Sending keeps the order of the queue but happens outside the lock of the pipeline, since listeners are
+     * notified on each send.
+     */
+    private void dispatch() {
+        synchronized (sendLock) {
+            BroadcastHandle handle;
+            while ((handle = nextToSend()) != null)
+                send(handle);
+        }
+    }
+
+    private synchronized BroadcastHandle nextToSend() {
+        if (outstanding >= maxOutstanding || queue.isEmpty())
+            return null;
+
+        outstanding++;
+        return queue.removeFirst();
+    }
+
+    private void onAttemptFinished() {
+        synchronized (this) {
+            outstanding--;
+        }
+        dispatch();
+    }
+
+    private void notifyListener(BroadcastHandle handle) {
+        for (Listener listener : listeners)
+            listener.onStateChanged(handle);
+    }
+
+    private void send(final BroadcastHandle handle) {
+        final Transaction transaction = handle.getTransaction();
+        if (handle.getAttempts() == 0)
+            trackConfidence(handle);
+
+        ListenableFuture<Transaction> future;
+        try {
+            TransactionBroadcast transactionBroadcast = peerGroup.broadcastTransaction(transaction);
+            transactionBroadcast.setMinConnections(minBroadcastConnections);
+            handle.onSent();
+            notifyListener(handle);
+            future = transactionBroadcast.broadcast();
+        } catch (RuntimeException e) {
+            onAttemptFailed(handle, e);
+            return;
+        }
+
+        // only the first outcome of each attempt counts, the timeout or the broadcast result.
+        final AtomicBoolean finished = new AtomicBoolean(false);
+
+        // each attempt has its own timeout, counted from the moment it is sent.
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (finished.compareAndSet(false, true))
+                    onAttemptFailed(handle, new TimeoutException("Transaction " + transaction.getHashAsString() + " was not announced by peers after " + BROADCAST_TIMEOUT_SECONDS + " seconds."));
+            }
+        }, BROADCAST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        Futures.addCallback(future, new FutureCallback<Transaction>() {
+            @Override
+            public void onSuccess(Transaction result) {
+                if (!finished.compareAndSet(false, true))
+                    return;
+
+                handle.onPropagated();
+                notifyListener(handle);
+                onAttemptFinished();
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                if (finished.compareAndSet(false, true))
+                    onAttemptFailed(handle, throwable);
+            }
+        });
+    }
+
+    /**
+     * schedules the transaction to be sent again, or fails it once there are no attempts left.
+     * The delay doubles with each attempt.
+     */
+    private void onAttemptFailed(final BroadcastHandle handle, Throwable throwable) {
+        if (handle.isFinished()){
+            onAttemptFinished();
+            return;
+        }
+
+        if (handle.getAttempts() >= MAX_ATTEMPTS){
+            handle.onFailed(throwable);
+            notifyListener(handle);
+            onAttemptFinished();
+            return;
+        }
+
+        handle.onRetry(throwable);
+        notifyListener(handle);
+        onAttemptFinished();
+
+        long delay = Math.min(RETRY_MAX_SECONDS, RETRY_BASE_SECONDS << Math.max(0, handle.getAttempts() - 1));
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                requeue(handle);
+            }
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    private void requeue(BroadcastHandle handle) {
+        if (handle.isFinished())
+            return;
+
+        // retries go first, transactions queued after it may depend on it.
+        synchronized (this) {
+            queue.addFirst(handle);
+        }
+        dispatch();
+    }
+
+    private void trackConfidence(final BroadcastHandle handle) {
+        final TransactionConfidence confidence = handle.getTransaction().getConfidence();
+        confidence.addEventListener(new TransactionConfidence.Listener() {
+            @Override
+            public void onConfidenceChanged(TransactionConfidence changedConfidence, ChangeReason reason) {
+                BroadcastHandle.State previousState = handle.getState();
+                boolean done = handle.onConfidenceChanged(changedConfidence);
+                if (handle.getState() != previousState)
+                    notifyListener(handle);
+
+                if (done)
+                    changedConfidence.removeEventListener(this);
+            }
+        });
+    }
+}
@@ -0,0 +1,320 @@
+package org.fermat.blockchain;
+
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Preconditions;
+import org.fermat.Main;
+import org.fermatj.core.NetworkParameters;
+import org.fermatj.core.Transaction;
+import org.fermatj.core.TransactionConfidence;
+import org.fermatj.core.Wallet;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outbound queue of signed transactions kept on disk, so a distribution survives a crash or a failed broadcast
+ * without building or signing the transactions again.
+ * Every state change of a broadcast is appended to the queue file and synced before going on. A transaction is
+ * written with its raw bytes when queued, before it is sent, and the following lines only record its new state:
+ * STATE txid attempts time [raw transaction hex]
+ * On the next start the transactions not confirmed are submitted again in their original order. Transactions
+ * that failed are kept until the wallet shows them confirmed or dead, since they were sent and may still confirm.
+ * Dead transactions are final: they are reported once and dropped from the queue.
+ */
+public class BroadcastQueue implements BroadcastPipeline.Listener {
+    // class constants
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final Logger logger = Main.logger;
+
+    private final File file;
+    private final NetworkParameters networkParameters;
+
+    // class variables
+    private final Map<String, Entry> entries;
+    private final List<String> dead;
+    private final List<String> unknown;
+    private FileOutputStream outputStream;
+
+    /**
+     * a transaction of the queue, with the last state recorded.
+     */
+    private static class Entry {
+        private final String hash;
+        private byte[] rawTransaction;
+        private BroadcastHandle.State state;
+        private int attempts;
+
+        private Entry(String hash) {
+            this.hash = hash;
+        }
+
+        private boolean isPending() {
+            return rawTransaction != null && state != BroadcastHandle.State.CONFIRMED && state != BroadcastHandle.State.DEAD;
+        }
+    }
+
+    /**
+     * constructor
+     * @param file the queue file
+     * @param networkParameters network of the queued transactions
+     */
+    public BroadcastQueue(File file, NetworkParameters networkParameters) {
+        Preconditions.checkNotNull(file);
+        Preconditions.checkNotNull(networkParameters);
+
+        this.file = file;
+        this.networkParameters = networkParameters;
+        this.entries = new LinkedHashMap<>();
+        this.dead = new ArrayList<>();
+        this.unknown = new ArrayList<>();
+    }
+
+    /**
+     * gets the queue file for the passed network.
+     * @param directory
+     * @param networkParameters
+     * @return
+     */
+    public static File getQueueFile(File directory, NetworkParameters networkParameters) {
+        return new File(directory, "iop-" + networkParameters.getPaymentProtocolId() + ".broadcasts");
+    }
+
+    /**
+     * reads the queue file left by previous executions, if any, and opens it to record new changes.
+     * Transactions that were dead on a previous execution are kept on getDead() and removed from the file.
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        if (file.exists())
+            read();
+
+        boolean finished = false;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()){
+            Entry entry = iterator.next();
+            if (entry.isPending())
+                continue;
+
+            if (entry.state == BroadcastHandle.State.DEAD)
+                dead.add(entry.hash);
+            iterator.remove();
+            finished = true;
+        }
+
+        // only the pending transactions are written back, so finished ones are not reported again.
+        if (finished)
+            rewrite();
+
+        outputStream = new FileOutputStream(file, true);
+    }
+
+    private void read() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] fields = line.split(" ");
+                try {
+                    BroadcastHandle.State state = BroadcastHandle.State.valueOf(fields[0]);
+                    Entry entry = entries.get(fields[1]);
+                    if (entry == null){
+                        entry = new Entry(fields[1]);
+                        entries.put(entry.hash, entry);
+                    }
+                    entry.state = state;
+                    entry.attempts = Integer.parseInt(fields[2]);
+                    if (fields.length > 4)
+                        entry.rawTransaction = Hex.decode(fields[4]);
+                } catch (RuntimeException e) {
+                    // a crash while appending may leave the last line incomplete.
+                    logger.error("Ignoring invalid line on broadcast queue " + file.getAbsolutePath() + ": " + line);
+                }
+            }
+        }
+    }
+
+    private void rewrite() throws IOException {
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tempFile)) {
+            for (Entry entry : entries.values())
+                output.write(getLine(entry.state, entry.hash, entry.attempts, entry.rawTransaction).getBytes(CHARSET));
+            output.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * the transactions of previous executions that are dead, so their payments were not made.
+     * @return the hashes of the transactions
+     */
+    public synchronized List<String> getDead() {
+        return new ArrayList<>(dead);
+    }
+
+    /**
+     * the transactions of previous executions that failed, resumed because the wallet doesn't show them confirmed
+     * or dead yet, so their payments may still be made.
+     * @return the hashes of the transactions
+     */
+    public synchronized List<String> getUnknown() {
+        return new ArrayList<>(unknown);
+    }
+
+    /**
+     * true if a previous execution left transactions that are not confirmed yet.
+     * @return
+     */
+    public synchronized boolean hasPending() {
+        for (Entry entry : entries.values()){
+            if (entry.isPending())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * submits again the transactions of previous executions that are not confirmed, in their original order.
+     * Transactions the wallet already has at the confirmation depth are marked as confirmed without sending them,
+     * and the ones the wallet has as dead are marked as dead and added to getDead(). Failed transactions the wallet
+     * has neither confirmed nor dead are added to getUnknown() and submitted again, to follow them.
+     * @param pipeline
+     * @param wallet
+     * @return the handles of the submitted transactions
+     */
+    public List<BroadcastHandle> resume(BroadcastPipeline pipeline, Wallet wallet) {
+        // read before taking our lock, the pipeline calls us back while holding its own.
+        int confirmationDepth = pipeline.getConfirmationDepth();
+
+        List<Transaction> pending = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : new ArrayList<>(entries.values())){
+                if (!entry.isPending())
+                    continue;
+
+                Transaction transaction = new Transaction(networkParameters, entry.rawTransaction);
+                Transaction walletTransaction = wallet.getTransaction(transaction.getHash());
+                if (isConfirmed(walletTransaction, confirmationDepth)){
+                    record(BroadcastHandle.State.CONFIRMED, entry.hash, entry.attempts, null);
+                } else if (isDead(walletTransaction)){
+                    record(BroadcastHandle.State.DEAD, entry.hash, entry.attempts, null);
+                    dead.add(entry.hash);
+                } else {
+                    if (entry.state == BroadcastHandle.State.FAILED)
+                        unknown.add(entry.hash);
+                    pending.add(transaction);
+                }
+            }
+            compact();
+        }
+
+        // submitted outside the lock, the pipeline calls us back with the state changes.
+        List<BroadcastHandle> handles = new ArrayList<>();
+        for (Transaction transaction : pending)
+            handles.add(pipeline.submit(transaction));
+        return handles;
+    }
+
+    private boolean isConfirmed(Transaction walletTransaction, int confirmationDepth) {
+        if (walletTransaction == null)
+            return false;
+
+        TransactionConfidence confidence = walletTransaction.getConfidence();
+        return confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING && confidence.getDepthInBlocks() >= confirmationDepth;
+    }
+
+    private boolean isDead(Transaction walletTransaction) {
+        return walletTransaction != null && walletTransaction.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD;
+    }
+
+    @Override
+    public synchronized void onStateChanged(BroadcastHandle handle) {
+        String hash = handle.getTransaction().getHashAsString();
+        Entry entry = entries.get(hash);
+
+        // the raw transaction is stored only once, the first time we see it.
+        byte[] rawTransaction = null;
+        if (entry == null || entry.rawTransaction == null)
+            rawTransaction = handle.getTransaction().bitcoinSerialize();
+
+        record(handle.getState(), hash, handle.getAttempts(), rawTransaction);
+        compact();
+    }
+
+    /**
+     * appends the state change to the queue file and syncs it. Changes notified after closing the queue are ignored.
+     */
+    private void record(BroadcastHandle.State state, String hash, int attempts, byte[] rawTransaction) {
+        if (outputStream == null)
+            return;
+
+        Entry entry = entries.get(hash);
+        if (entry == null){
+            entry = new Entry(hash);
+            entries.put(hash, entry);
+        }
+        entry.state = state;
+        entry.attempts = attempts;
+        if (rawTransaction != null)
+            entry.rawTransaction = rawTransaction;
+
+        String line = getLine(state, hash, attempts, rawTransaction);
+        try {
+            outputStream.write(line.getBytes(CHARSET));
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            logger.error("Unable to record broadcast state on " + file.getAbsolutePath() + ": " + line, e);
+        }
+    }
+
+    private String getLine(BroadcastHandle.State state, String hash, int attempts, byte[] rawTransaction) {
+        StringBuilder line = new StringBuilder();
+        line.append(state.name()).append(' ').append(hash).append(' ').append(attempts).append(' ').append(System.currentTimeMillis() / 1000);
+        if (rawTransaction != null)
+            line.append(' ').append(Hex.toHexString(rawTransaction));
+        line.append('\n');
+        return line.toString();
+    }
+
+    /**
+     * once every transaction is confirmed or dead there is nothing left to recover, so the queue starts empty again.
+     */
+    private void compact() {
+        if (outputStream == null || entries.isEmpty() || hasPending())
+            return;
+
+        try {
+            outputStream.getChannel().truncate(0);
+            outputStream.getFD().sync();
+            entries.clear();
+        } catch (IOException e) {
+            logger.error("Unable to clear broadcast queue " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * closes the queue file.
+     */
+    public synchronized void close() {
+        if (outputStream == null)
+            return;
+
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            logger.error("Unable to close broadcast queue " + file.getAbsolutePath(), e);
+        }
+        outputStream = null;
+    }
+}
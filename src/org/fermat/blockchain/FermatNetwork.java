@@ -3,22 +3,31 @@ package org.fermat.blockchain;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import com.google.common.base.Preconditions;
-import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import org.fermat.ExecutionContext;
 import org.fermat.Main;
+import org.fermat.telemetry.PhaseTimer;
+import org.fermat.telemetry.Telemetry;
 import org.fermat.transaction.TransactionErrorException;
 import org.fermatj.core.*;
 import org.fermatj.net.discovery.DnsDiscovery;
 import org.fermatj.params.RegTestParams;
 import org.fermatj.store.BlockStore;
 import org.fermatj.store.BlockStoreException;
-import org.fermatj.store.MemoryBlockStore;
+import org.fermatj.utils.Threading;
 import org.fermatj.wallet.WalletTransaction;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by rodrigo on 7/22/16.
@@ -34,6 +43,17 @@ public class FermatNetwork {
     private BlockchainEvents events;
     private Transaction genesisTransaction;
     private int minBroadcastConnections;
+    private File storeDirectory;
+    private File checkpointsFile;
+    private long keyCreationTime;
+    private WalletSnapshot walletSnapshot;
+    private BroadcastPipeline broadcastPipeline;
+    private BroadcastQueue broadcastQueue;
+    private PeerCache peerCache;
+    private File metricsFile;
+    private final List<InetSocketAddress> peers = new ArrayList<>();
+    private int maxOutstandingBroadcasts = BroadcastPipeline.DEFAULT_MAX_OUTSTANDING;
+    private int confirmationDepth = 1;
 
     /**
      * class constants
@@ -41,6 +61,8 @@ public class FermatNetwork {
     public  final NetworkParameters NETWORK;
     private final Context CONTEXT;
     private final String MINING_PRIVATE_KEY;
+    private static final int MAX_CONNECTIONS = 6;
+    private static final long CACHED_PEERS_TIMEOUT_SECONDS = 15;
 
     private final Logger logger = Main.logger;
 
@@ -50,14 +72,17 @@ public class FermatNetwork {
 
     /**
      * constructor
+     * @param context the job, which defines the network we connect to.
      * @param privateKey
      */
-    public FermatNetwork(String privateKey) {
+    public FermatNetwork(ExecutionContext context, String privateKey) {
+        Preconditions.checkNotNull(context);
         Preconditions.checkNotNull(privateKey);
         this.MINING_PRIVATE_KEY = privateKey;
         this.privateKey = null;
+        this.storeDirectory = new File(".");
 
-        this.NETWORK = Main.getNetworkParameters();
+        this.NETWORK = context.getNetworkParameters();
         this.CONTEXT = Context.getOrCreate(NETWORK);
 
         // I will hide IoPj output
@@ -65,12 +90,14 @@ public class FermatNetwork {
             logger.setLevel(Level.OFF);
     }
 
-    public FermatNetwork(ECKey privateKey) {
+    public FermatNetwork(ExecutionContext context, ECKey privateKey) {
+        Preconditions.checkNotNull(context);
         Preconditions.checkNotNull(privateKey);
         this.MINING_PRIVATE_KEY = "";
         this.privateKey = privateKey;
+        this.storeDirectory = new File(".");
 
-        this.NETWORK = Main.getNetworkParameters();
+        this.NETWORK = context.getNetworkParameters();
         this.CONTEXT = Context.getOrCreate(NETWORK);
 
         // I will hide IoPj output
@@ -81,6 +108,76 @@ public class FermatNetwork {
 
 
 
+    /**
+     * sets the directory where the block store and wallet snapshot are kept between executions. Default is the working directory.
+     * @param storeDirectory
+     */
+    public void setStoreDirectory(File storeDirectory) {
+        Preconditions.checkNotNull(storeDirectory);
+        this.storeDirectory = storeDirectory;
+    }
+
+    public File getStoreDirectory() {
+        return storeDirectory;
+    }
+
+    /**
+     * sets the checkpoints file, used instead of the resource of the network.
+     * @param checkpointsFile
+     */
+    public void setCheckpointsFile(File checkpointsFile) {
+        Preconditions.checkNotNull(checkpointsFile);
+        this.checkpointsFile = checkpointsFile;
+    }
+
+    /**
+     * sets the creation time of the private key. Blocks before it are not scanned for transactions.
+     * @param keyCreationTime epoch time in seconds
+     */
+    public void setKeyCreationTime(long keyCreationTime) {
+        this.keyCreationTime = keyCreationTime;
+    }
+
+    /**
+     * sets how many broadcasted transactions can be waiting for peers at the same time.
+     * @param maxOutstandingBroadcasts
+     */
+    public void setMaxOutstandingBroadcasts(int maxOutstandingBroadcasts) {
+        Preconditions.checkArgument(maxOutstandingBroadcasts > 0);
+        this.maxOutstandingBroadcasts = maxOutstandingBroadcasts;
+        if (broadcastPipeline != null)
+            broadcastPipeline.setMaxOutstanding(maxOutstandingBroadcasts);
+    }
+
+    /**
+     * sets the depth in blocks at which broadcasted transactions are considered confirmed.
+     * @param confirmationDepth
+     */
+    public void setConfirmationDepth(int confirmationDepth) {
+        Preconditions.checkArgument(confirmationDepth > 0);
+        this.confirmationDepth = confirmationDepth;
+        if (broadcastPipeline != null)
+            broadcastPipeline.setConfirmationDepth(confirmationDepth);
+    }
+
+    /**
+     * sets the file where the metrics of the execution are written on shutdown.
+     * @param metricsFile a .prom file for Prometheus text format, JSON otherwise.
+     */
+    public void setMetricsFile(File metricsFile) {
+        Preconditions.checkNotNull(metricsFile);
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * adds a peer to connect to. When peers are added, DNS discovery is not used.
+     * @param address
+     */
+    public void addPeer(InetSocketAddress address) {
+        Preconditions.checkNotNull(address);
+        peers.add(address);
+    }
+
     public void initialize() throws CantConnectToFermatBlockchainException {
         // get the wallet
         this.wallet = getWallet();
@@ -95,32 +192,78 @@ public class FermatNetwork {
             this.blockChain = getBlockchain();
         } catch (BlockStoreException e) {
             throw new CantConnectToFermatBlockchainException("Unable to create a blockchain.", e);
+        } catch (IOException e) {
+            throw new CantConnectToFermatBlockchainException("Unable to read the blockchain checkpoints.", e);
         }
 
+        // keep the wallet snapshot updated with every change
+        walletSnapshot.autosave(wallet);
+
         peerGroup = new PeerGroup(CONTEXT, blockChain);
         peerGroup.addWallet(wallet);
-        peerGroup.addEventListener(events);
+        // peers only pass their messages to listeners running on their own thread, needed to count the bytes received.
+        peerGroup.addEventListener(events, Threading.SAME_THREAD);
+
+        // peers of previous executions are measured again to keep the ranking updated
+        peerCache = new PeerCache(PeerCache.getCacheFile(storeDirectory, NETWORK));
+        peerCache.load();
+        peerGroup.addEventListener(peerCache);
+
+        for (InetSocketAddress address : peers)
+            peerGroup.addAddress(new PeerAddress(address));
+
+        List<InetSocketAddress> cachedPeers = Collections.emptyList();
 
         // if this is reg test, we are connecting to local and only wait one confirmation
         if (NETWORK == RegTestParams.get())
         {
             peerGroup.setUseLocalhostPeerWhenPossible(true);
-            peerGroup.addAddress(new PeerAddress(new InetSocketAddress("127.0.0.1", 8485)));
+            if (peers.isEmpty())
+                peerGroup.addAddress(new PeerAddress(new InetSocketAddress("127.0.0.1", 8485)));
             minBroadcastConnections = 1;
         } else {
-            peerGroup.addPeerDiscovery(new DnsDiscovery(NETWORK));
-            peerGroup.setMaxConnections(6);
+            if (peers.isEmpty()){
+                // fastest known peers first. DNS is only queried when none of them is available.
+                if (peerCache.isEmpty())
+                    peerGroup.addPeerDiscovery(new DnsDiscovery(NETWORK));
+                else
+                    cachedPeers = peerCache.getRankedAddresses();
+            }
+
+            // cached peers are connected explicitly once started, each explicit connection adds one to the maximum.
+            peerGroup.setMaxConnections(MAX_CONNECTIONS - Math.min(MAX_CONNECTIONS, cachedPeers.size()));
             minBroadcastConnections = 2;
         }
 
         System.out.println("Connecting to IoP " + NETWORK.getPaymentProtocolId() + " network...");
+        events.startProgress();
+        PhaseTimer downloadTimer = Telemetry.start(Telemetry.BLOCKCHAIN_DOWNLOAD);
         try{
             peerGroup.start();
+            if (!cachedPeers.isEmpty())
+                connectToCachedPeers(cachedPeers);
             peerGroup.downloadBlockChain();
+            downloadTimer.stop(events.getBlocksDownloaded());
         } catch (Exception e){
             throw new CantConnectToFermatBlockchainException("There was a problem connecting and downloading the blockchain on the specified network.", e);
+        } finally {
+            events.stopProgress();
         }
 
+        broadcastPipeline = new BroadcastPipeline(peerGroup, minBroadcastConnections);
+        broadcastPipeline.setMaxOutstanding(maxOutstandingBroadcasts);
+        broadcastPipeline.setConfirmationDepth(confirmationDepth);
+
+        // every broadcast is recorded on disk before sending it
+        broadcastQueue = new BroadcastQueue(BroadcastQueue.getQueueFile(storeDirectory, NETWORK), NETWORK);
+        try {
+            broadcastQueue.open();
+        } catch (IOException e) {
+            throw new CantConnectToFermatBlockchainException("Unable to open the broadcast queue.", e);
+        }
+        broadcastPipeline.addListener(broadcastQueue);
+        broadcastPipeline.addListener(events);
+
         // lets make sure the private key imported give us IoPs!
         if (wallet.getBalance(Wallet.BalanceType.AVAILABLE).isZero())
             throw new CantConnectToFermatBlockchainException("After blockchain download completed, no UTXO transactions where found. Possible wrong private key.\nCan't go on without coins.");
@@ -152,14 +295,43 @@ public class FermatNetwork {
             throw new CantConnectToFermatBlockchainException("After blockchain download completed, no UTXO transactions where found. Possible wrong private key.\nCan't go on without coins.");
     }
 
-    private BlockChain getBlockchain() throws BlockStoreException {
+    private BlockChain getBlockchain() throws BlockStoreException, IOException {
         Preconditions.checkNotNull(wallet);
 
-        blockStore = new MemoryBlockStore(CONTEXT.getParams());
+        blockStore = PersistentBlockStore.open(storeDirectory, CONTEXT.getParams(), wallet);
+
+        // a new store starts from the newest checkpoint before our key was created
+        if (BlockchainCheckpoints.apply(blockStore, CONTEXT.getParams(), checkpointsFile, wallet.getEarliestKeyCreationTime()))
+            System.out.println("Blockchain download starting from checkpoint at height " + blockStore.getChainHead().getHeight());
 
         return new BlockChain(CONTEXT, wallet, blockStore);
     }
 
+    /**
+     * connects to the fastest cached peers. The PeerGroup picks inactive peers by their backoff, not in the order
+     * they were added, so the ranking is only kept by connecting to them explicitly. The rest of the cached peers
+     * replace the ones that fail, and DNS discovery is only added if none of them can be reached.
+     * @param rankedAddresses the cached peers, fastest first
+     * @throws InterruptedException
+     */
+    private void connectToCachedPeers(List<InetSocketAddress> rankedAddresses) throws InterruptedException {
+        int connections = Math.min(MAX_CONNECTIONS, rankedAddresses.size());
+        for (int i = 0; i < connections; i++)
+            peerGroup.connectTo(rankedAddresses.get(i));
+
+        // adding addresses raises the maximum too
+        for (int i = connections; i < rankedAddresses.size(); i++)
+            peerGroup.addAddress(new PeerAddress(rankedAddresses.get(i)));
+        peerGroup.setMaxConnections(MAX_CONNECTIONS);
+
+        try {
+            peerGroup.waitForPeers(1).get(CACHED_PEERS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            System.out.println("None of the known peers is available. Discovering peers...");
+            peerGroup.addPeerDiscovery(new DnsDiscovery(NETWORK));
+        }
+    }
+
     /**
      * get the wallet
      * @return
@@ -168,12 +340,24 @@ public class FermatNetwork {
     private Wallet getWallet() throws CantConnectToFermatBlockchainException {
         Wallet internalWallet = null;
             try {
-                internalWallet = new Wallet(CONTEXT);
-
-                //import the private key into the wallet.
                 if (this.privateKey == null)
                     this.privateKey = getPrivateKeyFromDumpKey();
 
+                // the wallet of the previous execution, if any, already has the transactions found until its last block.
+                walletSnapshot = new WalletSnapshot(WalletSnapshot.getSnapshotFile(storeDirectory, NETWORK), privateKey);
+                internalWallet = walletSnapshot.load();
+                if (internalWallet != null){
+                    System.out.println("Wallet loaded from snapshot at height " + internalWallet.getLastBlockSeenHeight());
+                    return internalWallet;
+                }
+
+                internalWallet = new Wallet(CONTEXT);
+
+                // dumped keys have no creation time
+                if (keyCreationTime > 0)
+                    this.privateKey.setCreationTimeSeconds(keyCreationTime);
+
+                //import the private key into the wallet.
                 internalWallet.importKey(privateKey);
             } catch (AddressFormatException e) {
                 //if I can't get the ECKey to import I can't go on.
@@ -196,8 +380,9 @@ public class FermatNetwork {
             return false;
         }
 
+        // compared by public key, ECKey.equals also compares the creation time we may have set on the imported key.
         for (ECKey importedKeys : wallet.getImportedKeys()){
-            if (importedKeys.equals(ecKey))
+            if (Arrays.equals(importedKeys.getPubKey(), ecKey.getPubKey()))
                 return true;
         }
         return false;
@@ -230,38 +415,148 @@ public class FermatNetwork {
     }
 
     /**
-     * broadcast the passed transaction
+     * true if a previous execution left transactions that were not confirmed.
+     * @return
+     */
+    public boolean hasPendingBroadcasts() {
+        Preconditions.checkNotNull(broadcastQueue, "Network not initialized.");
+        return broadcastQueue.hasPending();
+    }
+
+    /**
+     * the transactions of previous executions that are dead and will not be broadcasted again.
+     * @return the hashes of the transactions
+     */
+    public List<String> getDeadBroadcasts() {
+        Preconditions.checkNotNull(broadcastQueue, "Network not initialized.");
+        return broadcastQueue.getDead();
+    }
+
+    /**
+     * the transactions of previous executions that peers didn't announce, resumed to follow them until they
+     * confirm or are dead.
+     * @return the hashes of the transactions
+     */
+    public List<String> getUnknownBroadcasts() {
+        Preconditions.checkNotNull(broadcastQueue, "Network not initialized.");
+        return broadcastQueue.getUnknown();
+    }
+
+    /**
+     * broadcasts again the transactions of previous executions that were not confirmed.
+     * @return the handles of the transactions sent again.
+     */
+    public List<BroadcastHandle> resumePendingBroadcasts() {
+        Preconditions.checkNotNull(broadcastQueue, "Network not initialized.");
+        return broadcastQueue.resume(broadcastPipeline, wallet);
+    }
+
+    /**
+     * adds a listener of the state changes of every broadcast, including the ones resumed from previous executions.
+     * @param listener
+     */
+    public void addBroadcastListener(BroadcastPipeline.Listener listener) {
+        Preconditions.checkNotNull(broadcastPipeline, "Network not initialized.");
+        broadcastPipeline.addListener(listener);
+    }
+
+    /**
+     * queues the passed transaction for broadcasting without waiting for it.
+     * @param transaction
+     * @return the handle to follow the transaction until it is confirmed.
+     */
+    public BroadcastHandle broadcastAsync(Transaction transaction) {
+        Preconditions.checkNotNull(broadcastPipeline, "Network not initialized.");
+        return broadcastPipeline.submit(transaction);
+    }
+
+    /**
+     * broadcast the passed transaction and waits until peers announce it.
      * @param transaction
      */
     public void broadcast(Transaction transaction) throws TransactionErrorException {
         System.out.println("Broadcasting transaction " + transaction.getHashAsString() + " ...");
-        try {
-            TransactionBroadcast transactionBroadcast = peerGroup.broadcastTransaction(transaction);
-            transactionBroadcast.setMinConnections(minBroadcastConnections);
+        awaitBroadcasts(Collections.singletonList(broadcastAsync(transaction)));
+        System.out.println("Transaction broadcasted sucessfully");
+    }
 
-             ListenableFuture<Transaction> future = transactionBroadcast.broadcast();
+    /**
+     * waits until the passed broadcasts are announced by peers. Failed attempts are sent again,
+     * so this returns once every transaction was propagated or ran out of attempts.
+     * @param handles
+     * @throws TransactionErrorException if any of the transactions couldn't be broadcasted
+     */
+    public void awaitBroadcasts(List<BroadcastHandle> handles) throws TransactionErrorException {
+        List<ListenableFuture<Transaction>> futures = new ArrayList<>(handles.size());
+        for (BroadcastHandle handle : handles)
+            futures.add(handle.getBroadcastFuture());
 
-            Futures.addCallback(future, new FutureCallback<Transaction>() {
-                @Override
-                public void onSuccess(Transaction transaction) {
-                    System.out.println("Transaction broadcasted sucessfully");
-                }
+        try {
+            Futures.successfulAsList(futures).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new TransactionErrorException("Interrupted while waiting for the transactions to be broadcasted.", e);
+        }
 
-                @Override
-                public void onFailure(Throwable throwable) {
-                    throwable.printStackTrace();
-                }
-            }
-            );
+        for (BroadcastHandle handle : handles){
+            if (handle.getState() == BroadcastHandle.State.FAILED || handle.getState() == BroadcastHandle.State.DEAD)
+                throw new TransactionErrorException("There was a problem broadcasting the passed transaction. " + handle.getTransaction().toString(), handle.getError());
+        }
+    }
 
-            future.get(10, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            throw new TransactionErrorException("There was a problem broadcasting the passed transaction. " + transaction.toString(), e);
+    /**
+     * waits until the passed broadcasts reach the confirmation depth.
+     * @param handles
+     * @throws TransactionErrorException if any of the transactions failed or was double spent
+     */
+    public void awaitConfirmations(List<BroadcastHandle> handles) throws TransactionErrorException {
+        for (BroadcastHandle handle : handles){
+            try {
+                handle.getConfirmationFuture().get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new TransactionErrorException("Transaction " + handle.getTransaction().getHashAsString() + " was not confirmed.", e);
+            }
         }
+    }
 
+    /**
+     * disconnects from the network, saves the wallet snapshot and closes the block store.
+     */
+    public void shutdown() {
+        if (broadcastPipeline != null)
+            broadcastPipeline.shutdown();
+
+        if (peerCache != null && peerGroup != null)
+            peerCache.save(peerGroup.getConnectedPeers());
+
+        if (peerGroup != null)
+            peerGroup.stop();
 
+        if (broadcastQueue != null)
+            broadcastQueue.close();
+
+        if (events != null && metricsFile != null){
+            try {
+                events.writeMetrics(metricsFile);
+            } catch (IOException e) {
+                logger.error("Unable to write the metrics to " + metricsFile.getAbsolutePath(), e);
+            }
+        }
 
+        if (walletSnapshot != null){
+            try {
+                walletSnapshot.shutdown();
+            } catch (IOException e) {
+                logger.error("Unable to save the wallet snapshot.", e);
+            }
+        }
 
+        if (blockStore != null){
+            try {
+                blockStore.close();
+            } catch (BlockStoreException e) {
+                logger.error("Unable to close the block store.", e);
+            }
+        }
     }
 
 }
@@ -0,0 +1,252 @@
+package org.fermat.blockchain;
+
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Preconditions;
+import org.fermat.Main;
+import org.fermatj.core.AbstractPeerEventListener;
+import org.fermatj.core.Block;
+import org.fermatj.core.FilteredBlock;
+import org.fermatj.core.NetworkParameters;
+import org.fermatj.core.Peer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Addresses of the peers we were able to connect to, kept between executions with the ping and the speed at which
+ * they sent us blocks, so the next execution connects to the fastest known peers instead of discovering new ones.
+ * One line per peer: host port pingMillis blocksPerSecond lastConnected
+ */
+public class PeerCache extends AbstractPeerEventListener {
+    // class constants
+    private static final int MAX_ENTRIES = 64;
+    private static final long EXPIRATION_SECONDS = 14 * 24 * 60 * 60;
+    private static final int MIN_BLOCKS_SAMPLE = 100;
+    private static final long UNKNOWN_PING = Long.MAX_VALUE;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final Logger logger = Main.logger;
+
+    private final File file;
+    private final Map<InetSocketAddress, Entry> entries;
+    private final Map<InetSocketAddress, DownloadSample> samples;
+
+    /**
+     * stored information of a peer.
+     */
+    private static class Entry {
+        private final InetSocketAddress address;
+        private long pingMillis = UNKNOWN_PING;
+        private double blocksPerSecond;
+        private long lastConnected;
+
+        private Entry(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * blocks received from a peer during this execution.
+     */
+    private static class DownloadSample {
+        private long firstBlockMillis;
+        private long lastBlockMillis;
+        private int blocks;
+    }
+
+    /**
+     * constructor
+     * @param file the cache file
+     */
+    public PeerCache(File file) {
+        Preconditions.checkNotNull(file);
+
+        this.file = file;
+        this.entries = new LinkedHashMap<>();
+        this.samples = new HashMap<>();
+    }
+
+    /**
+     * gets the cache file for the passed network.
+     * @param directory
+     * @param networkParameters
+     * @return
+     */
+    public static File getCacheFile(File directory, NetworkParameters networkParameters) {
+        return new File(directory, "iop-" + networkParameters.getPaymentProtocolId() + ".peers");
+    }
+
+    /**
+     * reads the peers stored by previous executions. Peers we didn't connect to for a long time are discarded.
+     */
+    public synchronized void load() {
+        if (!file.exists())
+            return;
+
+        long now = System.currentTimeMillis() / 1000;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] fields = line.split(" ");
+                try {
+                    Entry entry = new Entry(new InetSocketAddress(fields[0], Integer.parseInt(fields[1])));
+                    entry.pingMillis = Long.parseLong(fields[2]);
+                    entry.blocksPerSecond = Double.parseDouble(fields[3]);
+                    entry.lastConnected = Long.parseLong(fields[4]);
+
+                    if (now - entry.lastConnected < EXPIRATION_SECONDS)
+                        entries.put(entry.address, entry);
+                } catch (RuntimeException e) {
+                    logger.error("Ignoring invalid line on peer cache " + file.getAbsolutePath() + ": " + line);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Unable to read peer cache " + file.getAbsolutePath() + ". Peers will be discovered again.", e);
+        }
+    }
+
+    /**
+     * the stored peers, fastest first. Peers that sent us blocks are ranked by their speed and go before
+     * the ones we only know the ping of.
+     * @return
+     */
+    public synchronized List<InetSocketAddress> getRankedAddresses() {
+        List<Entry> ranked = new ArrayList<>(entries.values());
+        Collections.sort(ranked, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                int speed = Double.compare(entry2.blocksPerSecond, entry1.blocksPerSecond);
+                if (speed != 0)
+                    return speed;
+
+                return Long.compare(entry1.pingMillis, entry2.pingMillis);
+            }
+        });
+
+        List<InetSocketAddress> addresses = new ArrayList<>(ranked.size());
+        for (Entry entry : ranked)
+            addresses.add(entry.address);
+        return addresses;
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public synchronized void onPeerConnected(Peer peer, int peerCount) {
+        Entry entry = getEntry(peer);
+        entry.lastConnected = System.currentTimeMillis() / 1000;
+        updatePing(entry, peer);
+    }
+
+    @Override
+    public synchronized void onBlocksDownloaded(Peer peer, Block block, FilteredBlock filteredBlock, int blocksLeft) {
+        InetSocketAddress address = peer.getAddress().toSocketAddress();
+        DownloadSample sample = samples.get(address);
+        long now = System.currentTimeMillis();
+        if (sample == null){
+            sample = new DownloadSample();
+            sample.firstBlockMillis = now;
+            samples.put(address, sample);
+        }
+        sample.lastBlockMillis = now;
+        sample.blocks++;
+    }
+
+    @Override
+    public synchronized void onPeerDisconnected(Peer peer, int peerCount) {
+        update(peer);
+    }
+
+    /**
+     * updates the measures of the passed peers, still connected, and stores the cache.
+     * @param connectedPeers
+     */
+    public synchronized void save(List<Peer> connectedPeers) {
+        if (connectedPeers != null){
+            for (Peer peer : connectedPeers)
+                update(peer);
+        }
+
+        // keep the most recently connected peers
+        List<Entry> stored = new ArrayList<>(entries.values());
+        Collections.sort(stored, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                return Long.compare(entry2.lastConnected, entry1.lastConnected);
+            }
+        });
+        if (stored.size() > MAX_ENTRIES)
+            stored = stored.subList(0, MAX_ENTRIES);
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temporaryFile = null;
+        try {
+            temporaryFile = File.createTempFile("peers", ".tmp", directory);
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), CHARSET)) {
+                for (Entry entry : stored){
+                    writer.write(entry.address.getHostString() + " " + entry.address.getPort() + " " + entry.pingMillis + " " +
+                            entry.blocksPerSecond + " " + entry.lastConnected + "\n");
+                }
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Unable to save peer cache " + file.getAbsolutePath(), e);
+        } finally {
+            if (temporaryFile != null && temporaryFile.exists() && !temporaryFile.delete())
+                logger.error("Unable to delete temporary peer cache " + temporaryFile.getAbsolutePath());
+        }
+    }
+
+    private Entry getEntry(Peer peer) {
+        InetSocketAddress address = peer.getAddress().toSocketAddress();
+        Entry entry = entries.get(address);
+        if (entry == null){
+            entry = new Entry(address);
+            entries.put(address, entry);
+        }
+        return entry;
+    }
+
+    private void update(Peer peer) {
+        InetSocketAddress address = peer.getAddress().toSocketAddress();
+        Entry entry = entries.get(address);
+        if (entry == null)
+            return;
+
+        updatePing(entry, peer);
+
+        // small samples, like the blocks announced once synced, don't tell the speed of the peer
+        DownloadSample sample = samples.remove(address);
+        if (sample != null && sample.blocks >= MIN_BLOCKS_SAMPLE && sample.lastBlockMillis > sample.firstBlockMillis){
+            double blocksPerSecond = sample.blocks * 1000.0 / (sample.lastBlockMillis - sample.firstBlockMillis);
+            entry.blocksPerSecond = entry.blocksPerSecond == 0 ? blocksPerSecond : (entry.blocksPerSecond + blocksPerSecond) / 2;
+        }
+    }
+
+    private void updatePing(Entry entry, Peer peer) {
+        long pingMillis = peer.getPingTime();
+        if (pingMillis == UNKNOWN_PING)
+            return;
+
+        entry.pingMillis = entry.pingMillis == UNKNOWN_PING ? pingMillis : (entry.pingMillis + pingMillis) / 2;
+    }
+}
@@ -0,0 +1,112 @@
+package org.fermat.blockchain;
+
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Preconditions;
+import org.fermat.Main;
+import org.fermatj.core.NetworkParameters;
+import org.fermatj.core.StoredBlock;
+import org.fermatj.core.Wallet;
+import org.fermatj.store.BlockStore;
+import org.fermatj.store.BlockStoreException;
+import org.fermatj.store.SPVBlockStore;
+
+import java.io.File;
+
+/**
+ * Opens the memory mapped block store kept on disk between executions, so only the headers added since the
+ * last execution need to be downloaded.
+ * A store that can't be opened or whose last headers are not consistent is deleted and rebuilt.
+ */
+public class PersistentBlockStore {
+    // class constants
+    private static final String FILE_EXTENSION = ".spvchain";
+    private static final int HEADERS_TO_VERIFY = 10; // headers checked back from the chain head when opening
+
+    private static final Logger logger = Main.logger;
+
+    private PersistentBlockStore() {
+    }
+
+    /**
+     * gets the file of the block store for the passed network.
+     * @param directory
+     * @param networkParameters
+     * @return
+     */
+    public static File getStoreFile(File directory, NetworkParameters networkParameters) {
+        return new File(directory, "iop-" + networkParameters.getPaymentProtocolId() + FILE_EXTENSION);
+    }
+
+    /**
+     * opens the block store for the passed network and wallet.
+     * If the wallet has not seen the current chain head, the store is rewound to the last block seen by the wallet
+     * or rebuilt if that block is not on the store, so the wallet gets the transactions of the blocks it missed.
+     * @param directory the directory of the store files
+     * @param networkParameters
+     * @param wallet
+     * @return
+     * @throws BlockStoreException
+     */
+    public static BlockStore open(File directory, NetworkParameters networkParameters, Wallet wallet) throws BlockStoreException {
+        Preconditions.checkNotNull(directory);
+        Preconditions.checkNotNull(networkParameters);
+        Preconditions.checkNotNull(wallet);
+
+        if (!directory.exists() && !directory.mkdirs())
+            throw new BlockStoreException("Unable to create block store directory " + directory.getAbsolutePath());
+
+        File storeFile = getStoreFile(directory, networkParameters);
+        SPVBlockStore blockStore = null;
+        try {
+            blockStore = new SPVBlockStore(networkParameters, storeFile);
+            verify(blockStore);
+        } catch (BlockStoreException | RuntimeException e) {
+            logger.error("Block store " + storeFile.getAbsolutePath() + " is corrupted, rebuilding it.", e);
+            return rebuild(blockStore, storeFile, networkParameters);
+        }
+
+        StoredBlock chainHead = blockStore.getChainHead();
+        if (wallet.getLastBlockSeenHeight() >= chainHead.getHeight())
+            return blockStore;
+
+        // the wallet is behind the store. Let's rewind to the last block it has seen.
+        StoredBlock lastSeenBlock = null;
+        if (wallet.getLastBlockSeenHash() != null)
+            lastSeenBlock = blockStore.get(wallet.getLastBlockSeenHash());
+
+        if (lastSeenBlock == null)
+            return rebuild(blockStore, storeFile, networkParameters);
+
+        blockStore.setChainHead(lastSeenBlock);
+        return blockStore;
+    }
+
+    /**
+     * makes sure the chain head and the last headers before it can be read.
+     * @param blockStore
+     * @throws BlockStoreException
+     */
+    private static void verify(SPVBlockStore blockStore) throws BlockStoreException {
+        StoredBlock block = blockStore.getChainHead();
+        if (block == null)
+            throw new BlockStoreException("Chain head not found.");
+
+        for (int i = 0; i < HEADERS_TO_VERIFY && block.getHeight() > 0; i++){
+            StoredBlock previous = blockStore.get(block.getHeader().getPrevBlockHash());
+            if (previous == null || previous.getHeight() != block.getHeight() - 1)
+                throw new BlockStoreException("Header " + block.getHeader().getHashAsString() + " at height " + block.getHeight() + " is not linked to its previous header.");
+
+            block = previous;
+        }
+    }
+
+    private static BlockStore rebuild(SPVBlockStore blockStore, File storeFile, NetworkParameters networkParameters) throws BlockStoreException {
+        if (blockStore != null)
+            blockStore.close();
+
+        if (storeFile.exists() && !storeFile.delete())
+            throw new BlockStoreException("Unable to delete block store " + storeFile.getAbsolutePath());
+
+        return new SPVBlockStore(networkParameters, storeFile);
+    }
+}
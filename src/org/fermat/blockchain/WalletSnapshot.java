@@ -0,0 +1,252 @@
+package org.fermat.blockchain;
+
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Preconditions;
+import org.fermat.Main;
+import org.fermatj.core.AbstractWalletEventListener;
+import org.fermatj.core.ECKey;
+import org.fermatj.core.NetworkParameters;
+import org.fermatj.core.Wallet;
+import org.fermatj.store.UnreadableWalletException;
+import org.fermatj.store.WalletProtobufSerializer;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Encrypted copy of the wallet kept on disk between executions, so the transactions already found and the last
+ * block seen are not lost and only the blocks after it need to be scanned.
+ * The snapshot is encrypted and authenticated with keys derived from the private key of the wallet, so it can only
+ * be read when running with the same private key.
+ * File format: magic, iv, AES/CBC encrypted wallet protobuf and HMAC-SHA256 of all the previous bytes.
+ */
+public class WalletSnapshot {
+    // class constants
+    private static final byte[] MAGIC = {'F', 'W', 'S', '1'};
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int AES_KEY_LENGTH = 16;
+    private static final long AUTOSAVE_DELAY_MILLIS = 1000;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final Logger logger = Main.logger;
+
+    private final File file;
+    private final byte[] encryptionKey;
+    private final byte[] macKey;
+
+    // autosave
+    private ScheduledExecutorService autosaveExecutor;
+    private final AtomicBoolean savePending;
+    private Wallet autosaveWallet;
+
+    /**
+     * constructor
+     * @param file the snapshot file
+     * @param privateKey the key imported in the wallet, used to derive the encryption keys.
+     */
+    public WalletSnapshot(File file, ECKey privateKey) {
+        Preconditions.checkNotNull(file);
+        Preconditions.checkNotNull(privateKey);
+        Preconditions.checkArgument(!privateKey.isPubKeyOnly());
+
+        this.file = file;
+        this.encryptionKey = Arrays.copyOf(deriveKey("encryption", privateKey), AES_KEY_LENGTH);
+        this.macKey = deriveKey("authentication", privateKey);
+        this.savePending = new AtomicBoolean(false);
+    }
+
+    /**
+     * gets the snapshot file for the passed network.
+     * @param directory
+     * @param networkParameters
+     * @return
+     */
+    public static File getSnapshotFile(File directory, NetworkParameters networkParameters) {
+        return new File(directory, "iop-" + networkParameters.getPaymentProtocolId() + ".wallet");
+    }
+
+    /**
+     * loads the wallet stored on the snapshot.
+     * @return the wallet, or null if there is no snapshot or it can't be read with our key.
+     */
+    public Wallet load() {
+        if (!file.exists())
+            return null;
+
+        try {
+            byte[] content = Files.readAllBytes(file.toPath());
+            byte[] walletBytes = decrypt(content);
+            if (walletBytes == null){
+                logger.error("Wallet snapshot " + file.getAbsolutePath() + " is corrupted or belongs to another key. Ignoring it.");
+                return null;
+            }
+
+            return new WalletProtobufSerializer().readWallet(new ByteArrayInputStream(walletBytes));
+        } catch (IOException | UnreadableWalletException | GeneralSecurityException e) {
+            logger.error("Unable to load wallet snapshot " + file.getAbsolutePath() + ". Ignoring it.", e);
+            return null;
+        }
+    }
+
+    /**
+     * stores the passed wallet on the snapshot file, replacing the previous one.
+     * @param wallet
+     * @throws IOException
+     */
+    public synchronized void save(Wallet wallet) throws IOException {
+        ByteArrayOutputStream walletBytes = new ByteArrayOutputStream();
+        new WalletProtobufSerializer().writeWallet(wallet, walletBytes);
+
+        byte[] content;
+        try {
+            content = encrypt(walletBytes.toByteArray());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to encrypt wallet snapshot.", e);
+        }
+
+        // write to a temporary file and replace the snapshot, so a crash never leaves a half written one.
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temporaryFile = File.createTempFile("wallet", ".tmp", directory);
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(temporaryFile)) {
+                outputStream.write(content);
+                outputStream.getFD().sync();
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (temporaryFile.exists() && !temporaryFile.delete())
+                logger.error("Unable to delete temporary wallet snapshot " + temporaryFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * saves the wallet every time it changes. Changes made close to each other are saved together.
+     * @param wallet
+     */
+    public void autosave(Wallet wallet) {
+        Preconditions.checkNotNull(wallet);
+        Preconditions.checkState(autosaveExecutor == null, "Autosave already started.");
+
+        this.autosaveWallet = wallet;
+        autosaveExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Wallet snapshot autosave");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        wallet.addEventListener(new AbstractWalletEventListener() {
+            @Override
+            public void onWalletChanged(Wallet wallet) {
+                scheduleSave();
+            }
+        });
+    }
+
+    private void scheduleSave() {
+        if (!savePending.compareAndSet(false, true))
+            return;
+
+        autosaveExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                savePending.set(false);
+                try {
+                    save(autosaveWallet);
+                } catch (IOException e) {
+                    logger.error("Unable to autosave wallet snapshot " + file.getAbsolutePath(), e);
+                }
+            }
+        }, AUTOSAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * stops the autosave, storing the latest state of the wallet.
+     * @throws IOException
+     */
+    public void shutdown() throws IOException {
+        if (autosaveExecutor == null)
+            return;
+
+        autosaveExecutor.shutdownNow();
+        autosaveExecutor = null;
+        save(autosaveWallet);
+    }
+
+    private byte[] encrypt(byte[] plainText) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        new SecureRandom().nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(encryptionKey, "AES"), new IvParameterSpec(iv));
+        byte[] cipherText = cipher.doFinal(plainText);
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream(MAGIC.length + IV_LENGTH + cipherText.length + MAC_LENGTH);
+        content.write(MAGIC, 0, MAGIC.length);
+        content.write(iv, 0, IV_LENGTH);
+        content.write(cipherText, 0, cipherText.length);
+
+        byte[] mac = mac(content.toByteArray(), content.size());
+        content.write(mac, 0, mac.length);
+        return content.toByteArray();
+    }
+
+    /**
+     * authenticates and decrypts the passed snapshot content.
+     * @param content
+     * @return the wallet bytes, or null if the content was not generated with our key.
+     * @throws GeneralSecurityException
+     */
+    private byte[] decrypt(byte[] content) throws GeneralSecurityException {
+        if (content.length < MAGIC.length + IV_LENGTH + MAC_LENGTH || !Arrays.equals(MAGIC, Arrays.copyOf(content, MAGIC.length)))
+            return null;
+
+        int macOffset = content.length - MAC_LENGTH;
+        if (!MessageDigest.isEqual(mac(content, macOffset), Arrays.copyOfRange(content, macOffset, content.length)))
+            return null;
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(encryptionKey, "AES"), new IvParameterSpec(content, MAGIC.length, IV_LENGTH));
+        return cipher.doFinal(content, MAGIC.length + IV_LENGTH, macOffset - MAGIC.length - IV_LENGTH);
+    }
+
+    private byte[] mac(byte[] content, int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+        mac.update(content, 0, length);
+        return mac.doFinal();
+    }
+
+    private static byte[] deriveKey(String purpose, ECKey privateKey) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(("IoP wallet snapshot " + purpose).getBytes(CHARSET));
+            digest.update(privateKey.getPrivKeyBytes());
+            return digest.digest();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e); // can't happen, SHA-256 is always available.
+        }
+    }
+}
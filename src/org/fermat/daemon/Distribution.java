@@ -0,0 +1,166 @@
+package org.fermat.daemon;
+
+import org.fermat.blockchain.BroadcastHandle;
+import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermat.fermatTransaction.FermatTransactionBuilder;
+import org.fermat.fermatTransaction.FermatTransactionsSummary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A plan submitted to the daemon, from its validation until its transactions are confirmed.
+ */
+public class Distribution {
+    /**
+     * states of a distribution
+     */
+    public enum State {
+        INVALID, PENDING_APPROVAL, BROADCASTING, BROADCASTED, CONFIRMED, FAILED
+    }
+
+    private final String id;
+    private final long epochTime;
+    private final long submittedTime;
+    private volatile State state;
+    private volatile String message;
+    private List<String> errors;
+    private List<String> duplicates;
+    private FermatTransactionBuilder fermatTransactionBuilder;
+    private List<FermatTransaction> outputTransactions;
+    private FermatTransactionsSummary summary;
+    private String summaryText;
+    private List<BroadcastHandle> broadcastHandles;
+
+    /**
+     * constructor
+     * @param id
+     * @param epochTime the start time of the plan, from which days for payment are counted.
+     */
+    Distribution(String id, long epochTime) {
+        this.id = id;
+        this.epochTime = epochTime;
+        this.submittedTime = System.currentTimeMillis();
+        this.errors = Collections.emptyList();
+        this.duplicates = Collections.emptyList();
+        this.broadcastHandles = Collections.emptyList();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public FermatTransactionBuilder getFermatTransactionBuilder() {
+        return fermatTransactionBuilder;
+    }
+
+    public List<FermatTransaction> getOutputTransactions() {
+        return outputTransactions;
+    }
+
+    public List<BroadcastHandle> getBroadcastHandles() {
+        return broadcastHandles;
+    }
+
+    void setState(State state, String message) {
+        this.state = state;
+        this.message = message;
+    }
+
+    void setInvalid(String message, List<String> errors) {
+        this.errors = errors;
+        setState(State.INVALID, message);
+    }
+
+    void setPlan(FermatTransactionBuilder fermatTransactionBuilder, List<FermatTransaction> outputTransactions, FermatTransactionsSummary summary) {
+        this.fermatTransactionBuilder = fermatTransactionBuilder;
+        this.outputTransactions = outputTransactions;
+        this.summary = summary;
+        this.summaryText = summary.toString();
+        setState(State.PENDING_APPROVAL, null);
+    }
+
+    /**
+     * the rows of the plan already paid on previous distributions.
+     * @param duplicates
+     */
+    void setDuplicates(List<String> duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    void setBroadcastHandles(List<BroadcastHandle> broadcastHandles) {
+        this.broadcastHandles = broadcastHandles;
+        setState(State.BROADCASTING, null);
+    }
+
+    /**
+     * the distribution as a JSON object.
+     * @return
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"id\": ").append(Json.quote(id));
+        json.append(", \"state\": ").append(Json.quote(state.name()));
+        json.append(", \"submittedTime\": ").append(submittedTime);
+        json.append(", \"epochTime\": ").append(epochTime);
+        if (message != null)
+            json.append(", \"message\": ").append(Json.quote(message));
+
+        if (!errors.isEmpty()){
+            json.append(", \"errors\": [");
+            for (int i = 0; i < errors.size(); i++)
+                json.append(i == 0 ? "" : ", ").append(Json.quote(errors.get(i)));
+            json.append("]");
+        }
+
+        if (summary != null){
+            json.append(", \"summary\": {\"totalFermats\": ").append(summary.getTotalFermats());
+            json.append(", \"totalTransactions\": ").append(summary.getTotalTransactions());
+            json.append(", \"outputs\": ").append(outputTransactions.size());
+            json.append(", \"userCount\": ").append(summary.getUserCount());
+            json.append(", \"topUsers\": {");
+            boolean first = true;
+            for (Map.Entry<String, Long> entry : summary.getTopUsers().entrySet()){
+                json.append(first ? "" : ", ").append(Json.quote(entry.getKey())).append(": ").append(entry.getValue());
+                first = false;
+            }
+            json.append("}, \"text\": ").append(Json.quote(summaryText)).append("}");
+        }
+
+        if (!duplicates.isEmpty()){
+            json.append(", \"duplicates\": [");
+            for (int i = 0; i < duplicates.size(); i++)
+                json.append(i == 0 ? "" : ", ").append(Json.quote(duplicates.get(i)));
+            json.append("]");
+        }
+
+        if (!broadcastHandles.isEmpty()){
+            json.append(", \"transactions\": [");
+            List<BroadcastHandle> handles = new ArrayList<>(broadcastHandles);
+            for (int i = 0; i < handles.size(); i++){
+                BroadcastHandle handle = handles.get(i);
+                json.append(i == 0 ? "" : ", ");
+                json.append("{\"hash\": ").append(Json.quote(handle.getTransaction().getHashAsString()));
+                json.append(", \"state\": ").append(Json.quote(handle.getState().name()));
+                json.append(", \"attempts\": ").append(handle.getAttempts());
+                json.append(", \"seenByPeers\": ").append(handle.getSeenByPeers());
+                json.append(", \"depth\": ").append(handle.getDepth());
+                json.append(", \"propagationMillis\": ").append(handle.getPropagationMillis()).append("}");
+            }
+            json.append("]");
+        }
+
+        json.append("}");
+        return json.toString();
+    }
+}
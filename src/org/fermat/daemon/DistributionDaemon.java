@@ -0,0 +1,408 @@
+package org.fermat.daemon;
+
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.fermat.ExecutionContext;
+import org.fermat.Main;
+import org.fermat.blockchain.BroadcastHandle;
+import org.fermat.blockchain.FermatNetwork;
+import org.fermat.fermatTransaction.ExecutionJournal;
+import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermat.fermatTransaction.FermatTransactionAggregator;
+import org.fermat.fermatTransaction.FermatTransactionBuilder;
+import org.fermat.fermatTransaction.FermatTransactionsSummary;
+import org.fermat.fermatTransaction.InputFileRowError;
+import org.fermat.fermatTransaction.TransactionsInputFileNotValidException;
+import org.fermat.history.DuplicatePayment;
+import org.fermat.history.HistoryRecorder;
+import org.fermat.history.HistoryStore;
+import org.fermat.transaction.TransactionBuilder;
+import org.fermat.transaction.TransactionErrorException;
+import org.fermatj.core.Coin;
+import org.fermatj.core.Transaction;
+import org.fermatj.core.TransactionOutput;
+import org.fermatj.core.Wallet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a connected FermatNetwork and serves a JSON API on localhost to distribute plans without starting
+ * a new execution for each one:
+ * POST /distributions             submits a plan (the input file content) and returns its summary.
+ * GET  /distributions             lists the submitted plans.
+ * GET  /distributions/{id}        returns the state of a plan and its transactions.
+ * POST /distributions/{id}/approve broadcasts the plan.
+ * GET  /status                    returns the state of the daemon.
+ * Each approved plan is funded by the change of the previous one, so plans are approved one at a time.
+ */
+public class DistributionDaemon {
+    // class constants
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int HANDLER_THREADS = 4;
+    private static final String DISTRIBUTIONS_PATH = "/distributions";
+
+    private static final Logger logger = Main.logger;
+
+    private final ExecutionContext context;
+    private final FermatNetwork network;
+    private final boolean aggregate;
+    private final Map<String, Distribution> distributions;
+    private final AtomicInteger nextId;
+    private final ExecutionJournal journal;
+    private final HistoryStore history;
+    private final HistoryRecorder historyRecorder;
+
+    // class variables
+    private HttpServer server;
+    private ExecutorService executor;
+    private TransactionOutput fundingOutput; // the change of the last approved plan. Null until the first one.
+    private String haltReason;
+
+    /**
+     * constructor
+     * @param context the settings shared by all the plans. Each plan starts at the time it is received.
+     * @param network an initialized network
+     * @param aggregate if rows with the same address and days for payment are merged by default.
+     */
+    public DistributionDaemon(ExecutionContext context, FermatNetwork network, boolean aggregate) {
+        Preconditions.checkNotNull(context);
+        Preconditions.checkNotNull(network);
+
+        this.context = context;
+        this.network = network;
+        this.aggregate = aggregate;
+        this.distributions = Collections.synchronizedMap(new LinkedHashMap<String, Distribution>());
+        this.nextId = new AtomicInteger(1);
+        this.journal = new ExecutionJournal(ExecutionJournal.DEFAULT_FILE);
+        this.history = new HistoryStore(HistoryStore.getHistoryDirectory(network.getStoreDirectory(), context.getNetworkParameters()));
+        this.historyRecorder = new HistoryRecorder(journal, history);
+    }
+
+    /**
+     * opens the execution journal and the history, and records every transaction the network sends from now on.
+     * Must be called before resuming the broadcasts of previous executions, so they are recorded too.
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        journal.open();
+        history.open();
+
+        // transactions sent before a failure or a crash of a previous execution
+        int added = history.addFromJournal(journal.getFile(), context.getNetworkParameters());
+        if (added > 0)
+            logger.info(added + " transaction(s) sent on previous executions added to the distribution history from the execution journal.");
+
+        network.addBroadcastListener(historyRecorder);
+    }
+
+    /**
+     * starts serving the API on the passed localhost port. The daemon must be open.
+     * @param port
+     * @throws IOException
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(HANDLER_THREADS);
+        server.setExecutor(executor);
+
+        server.createContext("/status", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (!exchange.getRequestMethod().equals("GET")){
+                    respond(exchange, 405, error("Method not allowed."));
+                    return;
+                }
+                respond(exchange, 200, getStatus());
+            }
+        });
+
+        server.createContext(DISTRIBUTIONS_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // a plan that can't be stored or read, or a history that can't be searched, still gets a response
+                try {
+                    handleDistributions(exchange);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Error processing " + exchange.getRequestURI(), e);
+                    respond(exchange, 500, error(e.toString()));
+                }
+            }
+        });
+
+        server.start();
+    }
+
+    /**
+     * stops serving the API.
+     */
+    public void stop() {
+        if (server != null)
+            server.stop(0);
+        if (executor != null)
+            executor.shutdownNow();
+
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.error("Unable to close the execution journal " + journal.getFile().getAbsolutePath(), e);
+        }
+
+        try {
+            history.close();
+        } catch (IOException e) {
+            logger.error("Unable to close the distribution history " + history.getDirectory().getAbsolutePath(), e);
+        }
+    }
+
+    private void handleDistributions(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String[] parts = path.substring(DISTRIBUTIONS_PATH.length()).split("/");
+
+        // parts[0] is always empty, the path starts with /
+        if (parts.length <= 1){
+            if (method.equals("POST")){
+                boolean aggregateRows = aggregate;
+                String query = exchange.getRequestURI().getQuery();
+                if (query != null && query.contains("aggregate="))
+                    aggregateRows = query.contains("aggregate=true");
+
+                Distribution distribution = submit(exchange.getRequestBody(), aggregateRows);
+                respond(exchange, distribution.getState() == Distribution.State.INVALID ? 400 : 201, distribution.toJson());
+            } else if (method.equals("GET"))
+                respond(exchange, 200, listDistributions());
+            else
+                respond(exchange, 405, error("Method not allowed."));
+            return;
+        }
+
+        Distribution distribution = distributions.get(parts[1]);
+        if (distribution == null){
+            respond(exchange, 404, error("Distribution " + parts[1] + " not found."));
+            return;
+        }
+
+        if (parts.length == 2 && method.equals("GET")){
+            respond(exchange, 200, distribution.toJson());
+        } else if (parts.length == 3 && parts[2].equals("approve") && method.equals("POST")){
+            try {
+                approve(distribution);
+                respond(exchange, 202, distribution.toJson());
+            } catch (TransactionErrorException e) {
+                respond(exchange, 409, error(e.getMessage()));
+            }
+        } else
+            respond(exchange, 404, error("Not found."));
+    }
+
+    /**
+     * validates the submitted plan and calculates its summary.
+     * Each plan gets its own context starting at the time it is received, so plans are validated concurrently.
+     * @param content the input file or compiled plan
+     * @param aggregateRows
+     * @return
+     * @throws IOException
+     */
+    private Distribution submit(InputStream content, boolean aggregateRows) throws IOException {
+        // plans are validated at the same time, each one with its own start time.
+        ExecutionContext planContext = context.withEpochTime(System.currentTimeMillis());
+
+        FermatTransactionBuilder fermatTransactionBuilder = null;
+        List<FermatTransaction> outputTransactions = null;
+        FermatTransactionsSummary summary = null;
+        List<String> duplicates = new ArrayList<>();
+        TransactionsInputFileNotValidException invalidPlan = null;
+        File planFile = File.createTempFile("plan", ".tmp");
+        try {
+            Files.copy(content, planFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            fermatTransactionBuilder = new FermatTransactionBuilder(planContext, planFile);
+            fermatTransactionBuilder.generateTransactions();
+
+            outputTransactions = fermatTransactionBuilder.getFermatTransactions();
+            if (aggregateRows)
+                outputTransactions = FermatTransactionAggregator.aggregate(outputTransactions);
+
+            summary = fermatTransactionBuilder.getSummary();
+
+            // rows already paid are reported with the summary, before the distribution is approved
+            for (DuplicatePayment duplicate : history.findDuplicates(fermatTransactionBuilder.getFermatTransactions()))
+                duplicates.add(duplicate.toString());
+        } catch (TransactionsInputFileNotValidException e) {
+            invalidPlan = e;
+        } finally {
+            if (!planFile.delete())
+                logger.error("Unable to delete temporary plan " + planFile.getAbsolutePath());
+        }
+
+        // plans that could not be read don't take an id
+        Distribution distribution = new Distribution(String.valueOf(nextId.getAndIncrement()), planContext.getEpochTime());
+        if (invalidPlan != null){
+            List<String> errors = new ArrayList<>();
+            for (InputFileRowError rowError : invalidPlan.getRowErrors())
+                errors.add(rowError.toString());
+            distribution.setInvalid(invalidPlan.getMessage(), errors);
+        } else {
+            distribution.setDuplicates(duplicates);
+            distribution.setPlan(fermatTransactionBuilder, outputTransactions, summary);
+        }
+
+        distributions.put(distribution.getId(), distribution);
+        return distribution;
+    }
+
+    /**
+     * builds, signs and broadcasts the transactions of the passed distribution. Returns once they are queued.
+     * @param distribution
+     * @throws TransactionErrorException if the distribution can't be approved.
+     */
+    private synchronized void approve(final Distribution distribution) throws TransactionErrorException {
+        if (haltReason != null)
+            throw new TransactionErrorException("No more distributions can be approved. " + haltReason);
+
+        if (distribution.getState() != Distribution.State.PENDING_APPROVAL)
+            throw new TransactionErrorException("Distribution " + distribution.getId() + " is " + distribution.getState() + " and can't be approved.");
+
+        TransactionBuilder transactionBuilder;
+        if (fundingOutput == null)
+            transactionBuilder = new TransactionBuilder(context, network.getGenesisTransaction().getHash(), network.getFermatWallet(), distribution.getOutputTransactions());
+        else
+            transactionBuilder = new TransactionBuilder(fundingOutput, network.getFermatWallet(), distribution.getOutputTransactions());
+
+        for (FermatTransaction fermatTransaction : distribution.getOutputTransactions())
+            transactionBuilder.addFermatTransaction(fermatTransaction);
+
+        // fails without changing anything if we don't have the funds
+        transactionBuilder.completeTransaction();
+        List<Transaction> transactions = transactionBuilder.getTransactions();
+
+        // nothing is broadcasted until the plan and its transactions are on disk
+        try {
+            journal.appendPlan(distribution.getFermatTransactionBuilder(), distribution.getOutputTransactions(), transactions);
+            journal.sync();
+        } catch (IOException e) {
+            throw new TransactionErrorException("Unable to write the execution journal " + journal.getFile().getAbsolutePath() + ". Nothing was broadcasted.", e);
+        }
+        // each transaction is added to the history as soon as it is sent, even if a later one fails
+        historyRecorder.addPlan(distribution.getOutputTransactions());
+
+        // the next plan spends the change of this one
+        fundingOutput = transactionBuilder.getChangeOutput();
+        if (fundingOutput == null)
+            haltReason = "All the funds were distributed.";
+
+        List<BroadcastHandle> handles = new ArrayList<>();
+        for (Transaction transaction : transactions)
+            handles.add(network.broadcastAsync(transaction));
+        distribution.setBroadcastHandles(handles);
+
+        List<ListenableFuture<Transaction>> broadcastFutures = new ArrayList<>();
+        List<ListenableFuture<Transaction>> confirmationFutures = new ArrayList<>();
+        for (BroadcastHandle handle : handles){
+            broadcastFutures.add(handle.getBroadcastFuture());
+            confirmationFutures.add(handle.getConfirmationFuture());
+        }
+
+        Futures.addCallback(Futures.allAsList(broadcastFutures), new FutureCallback<List<Transaction>>() {
+            @Override
+            public void onSuccess(List<Transaction> result) {
+                // the history recorder already recorded each transaction as it was sent
+                distribution.setState(Distribution.State.BROADCASTED, null);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                onBroadcastFailed(distribution, throwable);
+            }
+        });
+
+        Futures.addCallback(Futures.allAsList(confirmationFutures), new FutureCallback<List<Transaction>>() {
+            @Override
+            public void onSuccess(List<Transaction> result) {
+                distribution.setState(Distribution.State.CONFIRMED, null);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                onBroadcastFailed(distribution, throwable);
+            }
+        });
+    }
+
+    /**
+     * following plans would spend the change of the failed one, so nothing else is approved.
+     */
+    private synchronized void onBroadcastFailed(Distribution distribution, Throwable throwable) {
+        distribution.setState(Distribution.State.FAILED, throwable.getMessage());
+        if (haltReason == null)
+            haltReason = "Distribution " + distribution.getId() + " failed: " + throwable.getMessage();
+    }
+
+    private synchronized String getStatus() {
+        long available;
+        if (fundingOutput != null)
+            available = fundingOutput.getValue().getValue();
+        else if (haltReason != null)
+            available = 0;
+        else
+            available = network.getFermatWallet().getBalance(Wallet.BalanceType.AVAILABLE).getValue();
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"network\": ").append(Json.quote(network.NETWORK.getPaymentProtocolId()));
+        json.append(", \"availableFermats\": ").append(available);
+        json.append(", \"available\": ").append(Json.quote(Coin.valueOf(available).toFriendlyString()));
+        json.append(", \"distributions\": ").append(distributions.size());
+        if (haltReason != null)
+            json.append(", \"halted\": ").append(Json.quote(haltReason));
+        json.append("}");
+        return json.toString();
+    }
+
+    private String listDistributions() {
+        StringBuilder json = new StringBuilder("[");
+        synchronized (distributions) {
+            boolean first = true;
+            for (Distribution distribution : distributions.values()){
+                json.append(first ? "" : ", ").append(distribution.toJson());
+                first = false;
+            }
+        }
+        json.append("]");
+        return json.toString();
+    }
+
+    private static String error(String message) {
+        return "{\"error\": " + Json.quote(message) + "}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(CHARSET);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+}
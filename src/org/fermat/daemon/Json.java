@@ -0,0 +1,49 @@
+package org.fermat.daemon;
+
+/**
+ * Minimal JSON encoding of the daemon responses.
+ */
+class Json {
+    private Json() {
+    }
+
+    /**
+     * the passed value as a JSON string.
+     * @param value
+     * @return
+     */
+    static String quote(String value) {
+        if (value == null)
+            return "null";
+
+        StringBuilder quoted = new StringBuilder(value.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch (c){
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    else
+                        quoted.append(c);
+            }
+        }
+        quoted.append('"');
+        return quoted.toString();
+    }
+}
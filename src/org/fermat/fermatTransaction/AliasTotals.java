@@ -0,0 +1,175 @@
+package org.fermat.fermatTransaction;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from alias to the fermats and rows sent to it, with linear probing.
+ * Totals are kept on primitive arrays, so adding a row doesn't allocate anything unless the table grows.
+ */
+class AliasTotals {
+    // class constants
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] aliases;
+    private long[] fermats;
+    private int[] rows;
+    private int size;
+
+    AliasTotals() {
+        clear();
+    }
+
+    /**
+     * adds the fermats of a row sent to the passed alias.
+     * @param alias
+     * @param rowFermats
+     */
+    void add(String alias, long rowFermats) {
+        add(alias, rowFermats, 1);
+    }
+
+    /**
+     * adds the totals of another table.
+     * @param other
+     */
+    void addAll(AliasTotals other) {
+        for (int slot = 0; slot < other.aliases.length; slot++){
+            if (other.aliases[slot] != null)
+                add(other.aliases[slot], other.fermats[slot], other.rows[slot]);
+        }
+    }
+
+    private void add(String alias, long addedFermats, int addedRows) {
+        Preconditions.checkNotNull(alias);
+
+        int slot = findSlot(aliases, alias);
+        if (aliases[slot] == null){
+            aliases[slot] = alias;
+            size++;
+        }
+        fermats[slot] += addedFermats;
+        rows[slot] += addedRows;
+
+        // keep at most half of the table used, so probes stay short
+        if (size * 2 > aliases.length)
+            resize(aliases.length * 2);
+    }
+
+    private static int findSlot(String[] table, String alias) {
+        int mask = table.length - 1;
+        int slot = mix(alias.hashCode()) & mask;
+        while (table[slot] != null && !table[slot].equals(alias))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * spreads the bits of the hash, so similar aliases don't end up on consecutive slots.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void resize(int capacity) {
+        String[] oldAliases = aliases;
+        long[] oldFermats = fermats;
+        int[] oldRows = rows;
+
+        aliases = new String[capacity];
+        fermats = new long[capacity];
+        rows = new int[capacity];
+        for (int i = 0; i < oldAliases.length; i++){
+            if (oldAliases[i] == null)
+                continue;
+
+            int slot = findSlot(aliases, oldAliases[i]);
+            aliases[slot] = oldAliases[i];
+            fermats[slot] = oldFermats[i];
+            rows[slot] = oldRows[i];
+        }
+    }
+
+    void clear() {
+        aliases = new String[MIN_CAPACITY];
+        fermats = new long[MIN_CAPACITY];
+        rows = new int[MIN_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * the amount of different aliases.
+     * @return
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * the fermats sent to the passed alias.
+     * @param alias
+     * @return 0 if nothing was sent to it.
+     */
+    long getFermats(String alias) {
+        int slot = findSlot(aliases, alias);
+        return aliases[slot] == null ? 0 : fermats[slot];
+    }
+
+    /**
+     * the slots of the aliases with the highest amount of fermats, highest first.
+     * @param count maximum amount of slots
+     * @return
+     */
+    int[] getTopSlots(int count) {
+        int[] top = new int[Math.min(count, size)];
+        int found = 0;
+        for (int slot = 0; slot < aliases.length; slot++){
+            if (aliases[slot] == null)
+                continue;
+            if (found == top.length && fermats[slot] <= fermats[top[found - 1]])
+                continue;
+
+            // insertion on the sorted top, dropping the lowest one when full
+            int position = found < top.length ? found++ : found - 1;
+            while (position > 0 && fermats[top[position - 1]] < fermats[slot]){
+                top[position] = top[position - 1];
+                position--;
+            }
+            top[position] = slot;
+        }
+        return top;
+    }
+
+    /**
+     * the slots of every alias, sorted by alias.
+     * @return
+     */
+    int[] getSortedSlots() {
+        String[] sortedAliases = new String[size];
+        int found = 0;
+        for (String alias : aliases){
+            if (alias != null)
+                sortedAliases[found++] = alias;
+        }
+        Arrays.sort(sortedAliases);
+
+        int[] slots = new int[size];
+        for (int i = 0; i < size; i++)
+            slots[i] = findSlot(aliases, sortedAliases[i]);
+        return slots;
+    }
+
+    String getAlias(int slot) {
+        return aliases[slot];
+    }
+
+    long getFermatsAt(int slot) {
+        return fermats[slot];
+    }
+
+    int getRowsAt(int slot) {
+        return rows[slot];
+    }
+}
@@ -0,0 +1,215 @@
+package org.fermat.fermatTransaction;
+
+import com.google.common.base.Preconditions;
+import org.fermatj.core.Transaction;
+import org.fermatj.core.TransactionOutput;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of the executions, written before the transactions are broadcasted.
+ * For each plan it records the rows of the input file, then each signed transaction with its raw bytes and the
+ * rows that generated each of its outputs, and later the transactions that were broadcasted.
+ * File format: magic and version, followed by records of: length, type, payload and CRC32 of type and payload.
+ * Records are buffered and only synced to disk on sync(), so all the transactions of a plan cost a single sync.
+ * A record left incomplete by a crash is dropped when the journal is opened again, and so is a header left
+ * incomplete. Any other damage makes open() fail without modifying the file.
+ */
+public class ExecutionJournal implements Closeable {
+    // class constants
+    static final byte[] MAGIC = {'F', 'J', 'N', 'L'};
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_LENGTH = MAGIC.length + 4;
+    static final int MAX_RECORD_LENGTH = 512 * 1024 * 1024;
+
+    // record types
+    static final byte PLAN = 1;
+    static final byte TRANSACTION = 2;
+    static final byte BROADCASTED = 3;
+
+    /**
+     * the journal of the executions on the working directory.
+     */
+    public static final File DEFAULT_FILE = new File("preMiningDistributor.journal");
+
+    private final File file;
+
+    // class variables
+    private FileOutputStream fileStream;
+    private DataOutputStream output;
+    private final CRC32 checksum = new CRC32();
+
+    /**
+     * constructor
+     * @param file
+     */
+    public ExecutionJournal(File file) {
+        Preconditions.checkNotNull(file);
+
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * opens the journal to append records, creating it if needed.
+     * @throws IOException if the file is not a journal or is damaged before its last record
+     */
+    public synchronized void open() throws IOException {
+        Preconditions.checkState(output == null, "Journal already open.");
+
+        // drop whatever a crash left after the last complete record, fails if the journal is damaged before it.
+        long validLength = ExecutionJournalReader.getValidLength(file);
+        boolean isNew = validLength == 0;
+        if (file.exists()){
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                if (randomAccessFile.length() > validLength)
+                    randomAccessFile.setLength(validLength);
+            }
+        }
+
+        fileStream = new FileOutputStream(file, true);
+        output = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024));
+        if (isNew){
+            output.write(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+        }
+    }
+
+    /**
+     * records a plan and its signed transactions. Must be called before broadcasting them.
+     * @param fermatTransactionBuilder the builder with the rows of the input file
+     * @param outputTransactions the fermat transactions that generated the outputs, aggregated or not.
+     * @param transactions the signed transactions, in broadcast order
+     * @throws IOException
+     */
+    public synchronized void appendPlan(FermatTransactionBuilder fermatTransactionBuilder, List<FermatTransaction> outputTransactions, List<Transaction> transactions) throws IOException {
+        Preconditions.checkState(output != null, "Journal is not open.");
+
+        List<FermatTransaction> rows = fermatTransactionBuilder.getFermatTransactions();
+        Map<FermatTransaction, Integer> rowIndexes = new IdentityHashMap<>(rows.size());
+
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeLong(System.currentTimeMillis());
+        payload.writeLong(fermatTransactionBuilder.getContext().getEpochTime());
+        payload.writeUTF(fermatTransactionBuilder.getContext().getNetworkParameters().getId());
+        payload.writeUTF(fermatTransactionBuilder.getInputFile().getName());
+        payload.writeInt(rows.size());
+        for (int i = 0; i < rows.size(); i++){
+            FermatTransaction row = rows.get(i);
+            rowIndexes.put(row, i);
+            payload.writeUTF(row.getAlias());
+            payload.writeUTF(row.getAddress().toString());
+            payload.writeLong(row.getFermats().getValue());
+            payload.writeInt(row.getDaysForPayment());
+        }
+        writeRecord(PLAN, payloadBytes);
+
+        // the rows that generated each output, grouped by the transaction that has it
+        Map<Transaction, List<FermatTransaction>> transactionOutputs = new LinkedHashMap<>();
+        for (Transaction transaction : transactions)
+            transactionOutputs.put(transaction, new ArrayList<FermatTransaction>());
+        for (FermatTransaction outputTransaction : outputTransactions){
+            TransactionOutput output = outputTransaction.getOutput();
+            if (output != null && transactionOutputs.containsKey(output.getParentTransaction()))
+                transactionOutputs.get(output.getParentTransaction()).add(outputTransaction);
+        }
+
+        for (Map.Entry<Transaction, List<FermatTransaction>> entry : transactionOutputs.entrySet()){
+            payloadBytes.reset();
+            payload.writeLong(System.currentTimeMillis());
+            payload.writeUTF(entry.getKey().getHashAsString());
+            byte[] rawTransaction = entry.getKey().bitcoinSerialize();
+            payload.writeInt(rawTransaction.length);
+            payload.write(rawTransaction);
+
+            payload.writeInt(entry.getValue().size());
+            for (FermatTransaction outputTransaction : entry.getValue()){
+                payload.writeInt((int) outputTransaction.getOutput().getIndex());
+
+                List<FermatTransaction> sourceRows = outputTransaction.isAggregated() ? outputTransaction.getSourceTransactions() : Collections.singletonList(outputTransaction);
+                payload.writeInt(sourceRows.size());
+                for (FermatTransaction row : sourceRows){
+                    Integer rowIndex = rowIndexes.get(row);
+                    payload.writeInt(rowIndex == null ? -1 : rowIndex);
+                }
+            }
+            writeRecord(TRANSACTION, payloadBytes);
+        }
+    }
+
+    /**
+     * records that the passed transaction was sent to peers.
+     * @param transaction
+     * @throws IOException
+     */
+    public synchronized void appendBroadcasted(Transaction transaction) throws IOException {
+        Preconditions.checkState(output != null, "Journal is not open.");
+
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeLong(System.currentTimeMillis());
+        payload.writeUTF(transaction.getHashAsString());
+        writeRecord(BROADCASTED, payloadBytes);
+    }
+
+    private void writeRecord(byte type, ByteArrayOutputStream payload) throws IOException {
+        byte[] content = payload.toByteArray();
+        Preconditions.checkArgument(content.length < MAX_RECORD_LENGTH, "Journal record is too big.");
+
+        checksum.reset();
+        checksum.update(type);
+        checksum.update(content, 0, content.length);
+
+        output.writeInt(content.length + 1);
+        output.writeByte(type);
+        output.write(content);
+        output.writeInt((int) checksum.getValue());
+    }
+
+    /**
+     * writes the appended records and waits until they are on disk.
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        Preconditions.checkState(output != null, "Journal is not open.");
+
+        output.flush();
+        fileStream.getFD().sync();
+    }
+
+    /**
+     * syncs the pending records and closes the journal.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (output == null)
+            return;
+
+        try {
+            sync();
+        } finally {
+            output.close();
+            output = null;
+            fileStream = null;
+        }
+    }
+}
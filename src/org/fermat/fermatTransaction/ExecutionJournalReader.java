@@ -0,0 +1,393 @@
+package org.fermat.fermatTransaction;
+
+import com.google.common.base.Preconditions;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the records of an ExecutionJournal in the order they were written.
+ * Reading stops at a record that is incomplete or doesn't match its checksum if it runs to the end of the file,
+ * since that is the last one written before a crash. A header cut by a crash is read as an empty journal.
+ * A damaged record followed by more data is not something a crash leaves, so it fails the reading.
+ */
+public class ExecutionJournalReader implements Closeable {
+    private final File file;
+    private final long fileLength;
+    private final DataInputStream input;
+    private final CRC32 checksum = new CRC32();
+    private long validLength;
+    private boolean truncated;
+
+    /**
+     * a record of the journal.
+     */
+    public static abstract class Record {
+        private final long time;
+
+        Record(long time) {
+            this.time = time;
+        }
+
+        /**
+         * the time the record was written, in milliseconds.
+         * @return
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * the rows of a plan, recorded before its transactions.
+     */
+    public static class PlanRecord extends Record {
+        private final long epochTime;
+        private final String networkId;
+        private final String inputFile;
+        private final List<Row> rows;
+
+        PlanRecord(long time, long epochTime, String networkId, String inputFile, List<Row> rows) {
+            super(time);
+            this.epochTime = epochTime;
+            this.networkId = networkId;
+            this.inputFile = inputFile;
+            this.rows = rows;
+        }
+
+        public long getEpochTime() {
+            return epochTime;
+        }
+
+        public String getNetworkId() {
+            return networkId;
+        }
+
+        public String getInputFile() {
+            return inputFile;
+        }
+
+        public List<Row> getRows() {
+            return rows;
+        }
+    }
+
+    /**
+     * a row of the input file.
+     */
+    public static class Row {
+        private final String alias;
+        private final String address;
+        private final long fermats; // in the smallest unit
+        private final int daysForPayment;
+
+        Row(String alias, String address, long fermats, int daysForPayment) {
+            this.alias = alias;
+            this.address = address;
+            this.fermats = fermats;
+            this.daysForPayment = daysForPayment;
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public long getFermats() {
+            return fermats;
+        }
+
+        public int getDaysForPayment() {
+            return daysForPayment;
+        }
+
+        @Override
+        public String toString() {
+            return alias + "," + address + "," + fermats + "," + daysForPayment;
+        }
+    }
+
+    /**
+     * a signed transaction of the last plan, recorded before broadcasting it.
+     */
+    public static class TransactionRecord extends Record {
+        private final String hash;
+        private final byte[] rawTransaction;
+        private final int[] outputIndexes;
+        private final int[][] outputRows;
+
+        TransactionRecord(long time, String hash, byte[] rawTransaction, int[] outputIndexes, int[][] outputRows) {
+            super(time);
+            this.hash = hash;
+            this.rawTransaction = rawTransaction;
+            this.outputIndexes = outputIndexes;
+            this.outputRows = outputRows;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public byte[] getRawTransaction() {
+            return rawTransaction;
+        }
+
+        /**
+         * the indexes of the outputs generated from rows of the plan. The change output is not included.
+         * @return
+         */
+        public int[] getOutputIndexes() {
+            return outputIndexes;
+        }
+
+        /**
+         * the rows of the plan that generated the output at the passed position of getOutputIndexes().
+         * @param position
+         * @return indexes on the rows of the plan record
+         */
+        public int[] getOutputRows(int position) {
+            return outputRows[position];
+        }
+    }
+
+    /**
+     * a transaction that was sent to peers.
+     */
+    public static class BroadcastedRecord extends Record {
+        private final String hash;
+
+        BroadcastedRecord(long time, String hash) {
+            super(time);
+            this.hash = hash;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+    }
+
+    /**
+     * constructor
+     * @param file
+     * @throws IOException if the file can't be read or is not a journal
+     */
+    public ExecutionJournalReader(File file) throws IOException {
+        Preconditions.checkNotNull(file);
+
+        this.file = file;
+        this.fileLength = file.length();
+        this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            byte[] header = new byte[ExecutionJournal.HEADER_LENGTH];
+            int headerLength = 0;
+            int read;
+            while (headerLength < header.length && (read = input.read(header, headerLength, header.length - headerLength)) >= 0)
+                headerLength = headerLength + read;
+
+            byte[] expectedHeader = ByteBuffer.allocate(ExecutionJournal.HEADER_LENGTH).put(ExecutionJournal.MAGIC).putInt(ExecutionJournal.FORMAT_VERSION).array();
+            if (headerLength < header.length){
+                // a crash while writing the header of a new journal, nothing was recorded yet.
+                if (!Arrays.equals(Arrays.copyOf(header, headerLength), Arrays.copyOf(expectedHeader, headerLength)))
+                    throw new IOException(file.getAbsolutePath() + " is not an execution journal.");
+
+                this.validLength = 0;
+                this.truncated = true;
+                return;
+            }
+
+            if (!Arrays.equals(Arrays.copyOf(header, ExecutionJournal.MAGIC.length), ExecutionJournal.MAGIC))
+                throw new IOException(file.getAbsolutePath() + " is not an execution journal.");
+
+            int version = ByteBuffer.wrap(header, ExecutionJournal.MAGIC.length, 4).getInt();
+            if (version != ExecutionJournal.FORMAT_VERSION)
+                throw new IOException("Execution journal " + file.getAbsolutePath() + " has an unsupported version " + version);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+        this.validLength = ExecutionJournal.HEADER_LENGTH;
+    }
+
+    /**
+     * reads the next record.
+     * @return the record, or null at the end of the journal or at a record left incomplete by a crash.
+     * @throws IOException if the file can't be read or a damaged record is followed by more data.
+     */
+    public Record next() throws IOException {
+        if (truncated)
+            return null;
+
+        // a clean end only happens right before the length of a record
+        int firstByte = input.read();
+        if (firstByte < 0)
+            return null;
+
+        byte[] content;
+        try {
+            int length = (firstByte << 24) | (input.readUnsignedByte() << 16) | input.readUnsignedShort();
+            if (length < 1 || length > ExecutionJournal.MAX_RECORD_LENGTH){
+                // past the end of the file a crash cut the record, zeros are space the file system allocated for it.
+                if (validLength + 4 + (long) length + 4 > fileLength || isZeroTail())
+                    return onTornTail();
+                throw new IOException("Execution journal " + file.getAbsolutePath() + " has an invalid record length " + length + " at position " + validLength + ", followed by more records.");
+            }
+
+            content = new byte[length];
+            input.readFully(content);
+            int expectedChecksum = input.readInt();
+
+            checksum.reset();
+            checksum.update(content, 0, content.length);
+            if ((int) checksum.getValue() != expectedChecksum){
+                if (validLength + 4 + length + 4 >= fileLength)
+                    return onTornTail();
+                throw new IOException("Execution journal " + file.getAbsolutePath() + " has a damaged record at position " + validLength + ", followed by more records.");
+            }
+            validLength = validLength + 4 + length + 4;
+        } catch (EOFException e) {
+            return onTornTail();
+        }
+
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(content, 1, content.length - 1));
+        long time = payload.readLong();
+        switch (content[0]){
+            case ExecutionJournal.PLAN:
+                long epochTime = payload.readLong();
+                String networkId = payload.readUTF();
+                String inputFile = payload.readUTF();
+                int rowCount = payload.readInt();
+                List<Row> rows = new ArrayList<>(rowCount);
+                for (int i = 0; i < rowCount; i++)
+                    rows.add(new Row(payload.readUTF(), payload.readUTF(), payload.readLong(), payload.readInt()));
+                return new PlanRecord(time, epochTime, networkId, inputFile, Collections.unmodifiableList(rows));
+
+            case ExecutionJournal.TRANSACTION:
+                String hash = payload.readUTF();
+                byte[] rawTransaction = new byte[payload.readInt()];
+                payload.readFully(rawTransaction);
+
+                int outputCount = payload.readInt();
+                int[] outputIndexes = new int[outputCount];
+                int[][] outputRows = new int[outputCount][];
+                for (int i = 0; i < outputCount; i++){
+                    outputIndexes[i] = payload.readInt();
+                    outputRows[i] = new int[payload.readInt()];
+                    for (int j = 0; j < outputRows[i].length; j++)
+                        outputRows[i][j] = payload.readInt();
+                }
+                return new TransactionRecord(time, hash, rawTransaction, outputIndexes, outputRows);
+
+            case ExecutionJournal.BROADCASTED:
+                return new BroadcastedRecord(time, payload.readUTF());
+
+            default:
+                throw new IOException("Unknown execution journal record type " + content[0]);
+        }
+    }
+
+    private Record onTornTail() {
+        truncated = true;
+        return null;
+    }
+
+    /**
+     * true if the rest of the file, after the length of the current record, is all zeros.
+     */
+    private boolean isZeroTail() throws IOException {
+        int value;
+        while ((value = input.read()) >= 0){
+            if (value != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * true if reading stopped at an incomplete record instead of the end of the file.
+     * @return
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * the length of the journal up to the last complete record read.
+     * @return
+     */
+    public long getValidLength() {
+        return validLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * the length of the passed journal up to its last complete record.
+     * @param file
+     * @return 0 if the file doesn't exist, is empty or its header is incomplete
+     * @throws IOException if the file is not a journal or is damaged before its last record
+     */
+    static long getValidLength(File file) throws IOException {
+        if (!file.exists() || file.length() == 0)
+            return 0;
+
+        try (ExecutionJournalReader reader = new ExecutionJournalReader(file)) {
+            while (reader.next() != null);
+            return reader.getValidLength();
+        }
+    }
+
+    /**
+     * prints the content of the passed journal.
+     * @param file
+     * @param out
+     * @throws IOException
+     */
+    public static void print(File file, PrintStream out) throws IOException {
+        try (ExecutionJournalReader reader = new ExecutionJournalReader(file)) {
+            List<Row> rows = Collections.emptyList();
+            Record record;
+            while ((record = reader.next()) != null){
+                if (record instanceof PlanRecord){
+                    PlanRecord plan = (PlanRecord) record;
+                    rows = plan.getRows();
+                    out.println(new Date(plan.getTime()) + " Plan " + plan.getInputFile() + " on " + plan.getNetworkId() + ", epoch time " + plan.getEpochTime() + ", " + rows.size() + " rows");
+                } else if (record instanceof TransactionRecord){
+                    TransactionRecord transaction = (TransactionRecord) record;
+                    out.println(new Date(transaction.getTime()) + " Signed " + transaction.getHash());
+                    for (int i = 0; i < transaction.getOutputIndexes().length; i++){
+                        out.println("    output " + transaction.getOutputIndexes()[i] + " from rows:");
+                        for (int row : transaction.getOutputRows(i))
+                            out.println("        " + (row >= 0 && row < rows.size() ? rows.get(row).toString() : "unknown row " + row));
+                    }
+                    out.println("    " + Hex.toHexString(transaction.getRawTransaction()));
+                } else if (record instanceof BroadcastedRecord){
+                    out.println(new Date(record.getTime()) + " Broadcasted " + ((BroadcastedRecord) record).getHash());
+                }
+            }
+
+            if (reader.isTruncated())
+                out.println(reader.getValidLength() == 0 ? "The journal header is incomplete, no records were written." : "The last record is incomplete and was ignored.");
+        }
+    }
+}
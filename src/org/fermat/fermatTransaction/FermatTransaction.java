@@ -1,15 +1,17 @@
 package org.fermat.fermatTransaction;
 
 import com.google.common.base.Preconditions;
-import org.fermat.Main;
+import org.fermat.ExecutionContext;
+import org.fermat.transaction.RedeemScriptTemplate;
 import org.fermatj.core.Address;
 import org.fermatj.core.Coin;
 import org.fermatj.core.ECKey;
 import org.fermatj.core.TransactionOutput;
 import org.fermatj.script.Script;
 
-import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Created by rodrigo on 7/25/16.
@@ -20,10 +22,11 @@ public class FermatTransaction {
     private Coin fermats;
     private boolean isTimeContrained;
     private int daysForPayment;
-    private Date paymentDate;
     private long paymentEpochTime;
     private TransactionOutput output;
     private Script redeemScript;
+    private byte[] redeemScriptProgram;
+    private List<FermatTransaction> sourceTransactions; // rows merged into this transaction, if any
 
     /**
      * default constructor
@@ -49,12 +52,14 @@ public class FermatTransaction {
      * @param address
      * @param fermats
      * @param daysForPayment
+     * @param context the job, with the start time from which the days are counted.
      */
-    public FermatTransaction(String alias, Address address, Coin fermats, int daysForPayment) {
+    public FermatTransaction(String alias, Address address, Coin fermats, int daysForPayment, ExecutionContext context) {
         Preconditions.checkNotNull(alias);
         Preconditions.checkNotNull(address);
         Preconditions.checkNotNull(fermats);
         Preconditions.checkNotNull(daysForPayment);
+        Preconditions.checkNotNull(context);
 
         this.alias = alias;
         this.address = address;
@@ -63,24 +68,32 @@ public class FermatTransaction {
 
         // sets the time properties.
         this.isTimeContrained = true;
-        this.paymentEpochTime = getTransactionEpochTime(daysForPayment);
-        this.paymentDate = new Date(this.paymentEpochTime);
+        this.paymentEpochTime = getTransactionEpochTime(context, daysForPayment);
     }
 
     /**
-     * Adds the passed passed days to the Main Epoch Time of when the process started.
-     * @return
+     * constructor of an output that merges several rows, paid at the same time as the passed one.
+     * @param first the first of the merged rows
+     * @param fermats the total of the merged rows
      */
-    private long getTransactionEpochTime(int daysForPayment) {
-        // gets the date of the start of the process from the Main class
-        Date startDate = new Date(Main.getEpocTime());
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime(startDate);
-        // add the amount of dates
-        calendar.add(Calendar.DATE, daysForPayment);
+    FermatTransaction(FermatTransaction first, Coin fermats) {
+        Preconditions.checkNotNull(first);
+        Preconditions.checkNotNull(fermats);
+
+        this.alias = first.alias;
+        this.address = first.address;
+        this.fermats = fermats;
+        this.isTimeContrained = first.isTimeContrained;
+        this.daysForPayment = first.daysForPayment;
+        this.paymentEpochTime = first.paymentEpochTime;
+    }
 
-        //convert back to epoch
-        return calendar.getTime().getTime();
+    /**
+     * Adds the passed passed days to the Epoch Time of when the job started.
+     * @return
+     */
+    private static long getTransactionEpochTime(ExecutionContext context, int daysForPayment) {
+        return context.getUnlockTable().getUnlockTime(daysForPayment);
     }
 
     public TransactionOutput getOutput() {
@@ -112,7 +125,8 @@ public class FermatTransaction {
     }
 
     public Date getPaymentDate() {
-        return paymentDate;
+        // only created when needed, most rows are never shown.
+        return isTimeContrained ? new Date(paymentEpochTime) : null;
     }
 
     public long getPaymentEpochTime() {
@@ -120,11 +134,59 @@ public class FermatTransaction {
     }
 
     public Script getRedeemScript() {
+        // time constrained scripts are stored as program and only parsed when needed.
+        if (redeemScript == null && redeemScriptProgram != null)
+            redeemScript = RedeemScriptTemplate.toScript(redeemScriptProgram);
+
         return redeemScript;
     }
 
     public void setRedeemScript(Script redeemScript) {
         this.redeemScript = redeemScript;
+        this.redeemScriptProgram = null;
+    }
+
+    /**
+     * the bytes of the redeem script
+     * @return
+     */
+    public byte[] getRedeemScriptProgram() {
+        if (redeemScriptProgram == null && redeemScript != null)
+            return redeemScript.getProgram();
+
+        return redeemScriptProgram;
+    }
+
+    /**
+     * sets a time constrained redeem script generated by the RedeemScriptTemplate
+     * @param redeemScriptProgram
+     */
+    public void setRedeemScriptProgram(byte[] redeemScriptProgram) {
+        this.redeemScriptProgram = redeemScriptProgram;
+        this.redeemScript = null;
+    }
+
+    /**
+     * the input file rows this transaction was created from.
+     * @return the merged rows, or only this transaction if it was not aggregated.
+     */
+    public List<FermatTransaction> getSourceTransactions() {
+        if (sourceTransactions == null)
+            return Collections.singletonList(this);
+
+        return sourceTransactions;
+    }
+
+    /**
+     * true if this transaction is the result of merging several rows.
+     * @return
+     */
+    public boolean isAggregated() {
+        return sourceTransactions != null && sourceTransactions.size() > 1;
+    }
+
+    void setSourceTransactions(List<FermatTransaction> sourceTransactions) {
+        this.sourceTransactions = sourceTransactions;
     }
 
     @Override
@@ -132,7 +194,7 @@ public class FermatTransaction {
         return "FermatTransaction{" +
                 "alias='" + alias + '\'' +
                 ", fermats=" + fermats +
-                ", paymentDate=" + paymentDate +
+                ", paymentDate=" + getPaymentDate() +
                 ", Address=" + address.toString() +
                 ", paymentEpochTime=" + paymentEpochTime +
                 '}';
@@ -0,0 +1,98 @@
+package org.fermat.fermatTransaction;
+
+import com.google.common.base.Preconditions;
+import org.fermatj.core.Coin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the fermat transactions that send to the same address with the same payment epoch time into a single one,
+ * so they generate a single output. Merged transactions keep the rows they were created from.
+ */
+public class FermatTransactionAggregator {
+    private FermatTransactionAggregator() {
+    }
+
+    /**
+     * aggregates the passed transactions.
+     * @param fermatTransactions
+     * @return the aggregated transactions, in the order of the first row of each one.
+     */
+    public static List<FermatTransaction> aggregate(List<FermatTransaction> fermatTransactions) {
+        Preconditions.checkNotNull(fermatTransactions);
+
+        // groups rows by address and locktime, keeping the file order
+        Map<OutputKey, List<FermatTransaction>> outputs = new LinkedHashMap<>();
+        for (FermatTransaction fermatTransaction : fermatTransactions){
+            OutputKey key = new OutputKey(fermatTransaction);
+            List<FermatTransaction> rows = outputs.get(key);
+            if (rows == null){
+                rows = new ArrayList<>(1);
+                outputs.put(key, rows);
+            }
+            rows.add(fermatTransaction);
+        }
+
+        List<FermatTransaction> aggregated = new ArrayList<>(outputs.size());
+        for (List<FermatTransaction> rows : outputs.values()){
+            if (rows.size() == 1)
+                aggregated.add(rows.get(0));
+            else
+                aggregated.add(merge(rows));
+        }
+        return aggregated;
+    }
+
+    private static FermatTransaction merge(List<FermatTransaction> rows) {
+        FermatTransaction first = rows.get(0);
+
+        Coin fermats = Coin.ZERO;
+        for (FermatTransaction row : rows){
+            fermats = fermats.add(row.getFermats());
+        }
+
+        FermatTransaction merged = new FermatTransaction(first, fermats);
+
+        merged.setSourceTransactions(rows);
+        return merged;
+    }
+
+    /**
+     * key of the aggregation index: hash160 and version of the address plus the payment epoch time.
+     */
+    private static class OutputKey {
+        private final byte[] hash160;
+        private final int version;
+        private final long locktime;
+        private final int hashCode;
+
+        OutputKey(FermatTransaction fermatTransaction) {
+            this.hash160 = fermatTransaction.getAddress().getHash160();
+            this.version = fermatTransaction.getAddress().getVersion();
+            this.locktime = fermatTransaction.isTimeContrained() ? fermatTransaction.getPaymentEpochTime() : 0;
+
+            int result = Arrays.hashCode(hash160);
+            result = 31 * result + version;
+            result = 31 * result + (int) (locktime ^ (locktime >>> 32));
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof OutputKey)) return false;
+
+            OutputKey other = (OutputKey) o;
+            return locktime == other.locktime && version == other.version && Arrays.equals(hash160, other.hash160);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
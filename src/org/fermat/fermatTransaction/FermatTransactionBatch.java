@@ -0,0 +1,167 @@
+package org.fermat.fermatTransaction;
+
+import com.google.common.base.Preconditions;
+import org.fermat.ExecutionContext;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Several input files distributed on the same execution. Files are validated in parallel and each one
+ * keeps its own FermatTransactionBuilder, so it is built and logged as a separate plan.
+ */
+public class FermatTransactionBatch {
+    // class constants
+    private static final int MAX_PARALLEL_FILES = 4;
+
+    private final ExecutionContext context;
+    private final List<File> inputFiles;
+    private final List<FermatTransactionBuilder> fermatTransactionBuilders;
+
+    /**
+     * constructor
+     * @param context the job all the files are distributed on
+     * @param inputFiles the files of the batch, in the order they will be distributed.
+     */
+    public FermatTransactionBatch(ExecutionContext context, List<File> inputFiles) {
+        Preconditions.checkNotNull(context);
+        Preconditions.checkNotNull(inputFiles);
+        Preconditions.checkArgument(!inputFiles.isEmpty());
+
+        this.context = context;
+        this.inputFiles = inputFiles;
+        this.fermatTransactionBuilders = new ArrayList<>(inputFiles.size());
+    }
+
+    /**
+     * gets the input files from a comma separated list of files and directories. The files of a directory
+     * are taken in name order, skipping hidden ones.
+     * @param value
+     * @return
+     * @throws TransactionsInputFileNotValidException if any of the files doesn't exist
+     */
+    public static List<File> getInputFiles(String value) throws TransactionsInputFileNotValidException {
+        List<File> inputFiles = new ArrayList<>();
+        for (String path : value.split(",")){
+            File file = new File(path.trim());
+            if (file.isDirectory()){
+                File[] files = file.listFiles(new FileFilter() {
+                    @Override
+                    public boolean accept(File pathname) {
+                        return pathname.isFile() && !pathname.isHidden();
+                    }
+                });
+                if (files == null || files.length == 0)
+                    throw new TransactionsInputFileNotValidException("The directory " + file.getAbsolutePath() + " has no input files.");
+
+                Arrays.sort(files);
+                inputFiles.addAll(Arrays.asList(files));
+            } else if (file.isFile())
+                inputFiles.add(file);
+            else
+                throw new TransactionsInputFileNotValidException("The specified file " + file.getAbsolutePath() + " does not exists.");
+        }
+        return inputFiles;
+    }
+
+    public List<File> getInputFiles() {
+        return inputFiles;
+    }
+
+    /**
+     * the builders of each input file, in the order of the files.
+     * @return
+     */
+    public List<FermatTransactionBuilder> getFermatTransactionBuilders() {
+        return fermatTransactionBuilders;
+    }
+
+    /**
+     * validates all the files in parallel and generates their transactions.
+     * @throws TransactionsInputFileNotValidException with the errors of every invalid file, prefixed by the file name.
+     * @throws IOException
+     */
+    public void generateTransactions() throws TransactionsInputFileNotValidException, IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_PARALLEL_FILES, inputFiles.size()));
+        List<Future<FermatTransactionBuilder>> futures = new ArrayList<>();
+        try {
+            for (final File inputFile : inputFiles){
+                futures.add(executor.submit(new Callable<FermatTransactionBuilder>() {
+                    @Override
+                    public FermatTransactionBuilder call() throws Exception {
+                        FermatTransactionBuilder fermatTransactionBuilder = new FermatTransactionBuilder(context, inputFile);
+                        fermatTransactionBuilder.generateTransactions();
+                        return fermatTransactionBuilder;
+                    }
+                }));
+            }
+
+            StringBuilder message = new StringBuilder();
+            List<InputFileRowError> errors = new ArrayList<>();
+            int invalidFiles = 0;
+            for (int i = 0; i < futures.size(); i++){
+                String fileName = inputFiles.get(i).getName();
+                try {
+                    fermatTransactionBuilders.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException)
+                        throw (IOException) e.getCause();
+                    if (!(e.getCause() instanceof TransactionsInputFileNotValidException))
+                        throw new RuntimeException(e.getCause());
+
+                    TransactionsInputFileNotValidException notValid = (TransactionsInputFileNotValidException) e.getCause();
+                    invalidFiles++;
+                    message.append(System.lineSeparator()).append(fileName).append(": ").append(notValid.getMessage());
+                    for (InputFileRowError rowError : notValid.getRowErrors())
+                        errors.add(new InputFileRowError(rowError.getLineNumber(), fileName + " - " + rowError.getMessage()));
+                }
+            }
+
+            if (invalidFiles > 0)
+                throw new TransactionsInputFileNotValidException(invalidFiles + " of " + inputFiles.size() + " input files are not valid." + message, errors);
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while validating the input files.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * the transactions of all the files, in file order.
+     * @return
+     */
+    public List<FermatTransaction> getFermatTransactions() {
+        List<FermatTransaction> fermatTransactions = new ArrayList<>();
+        for (FermatTransactionBuilder fermatTransactionBuilder : fermatTransactionBuilders)
+            fermatTransactions.addAll(fermatTransactionBuilder.getFermatTransactions());
+        return Collections.unmodifiableList(fermatTransactions);
+    }
+
+    /**
+     * the summary of all the files, merged from the summary each builder filled while reading its file.
+     * @return
+     */
+    public FermatTransactionsSummary getSummary() {
+        FermatTransactionsSummary summary = new FermatTransactionsSummary(context);
+        for (FermatTransactionBuilder fermatTransactionBuilder : fermatTransactionBuilders)
+            summary.addAll(fermatTransactionBuilder.getSummary());
+        return summary;
+    }
+
+    public long getTotalFermats() {
+        long totalFermats = 0;
+        for (FermatTransactionBuilder fermatTransactionBuilder : fermatTransactionBuilders)
+            totalFermats = totalFermats + fermatTransactionBuilder.getTotalFermats();
+        return totalFermats;
+    }
+}
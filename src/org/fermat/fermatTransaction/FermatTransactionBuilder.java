@@ -4,8 +4,12 @@ import com.google.common.base.Preconditions;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
-import org.fermat.Main;
+import org.fermat.ExecutionContext;
+import org.fermat.fermatTransaction.inputFileManagement.CompiledPlanFile;
 import org.fermat.fermatTransaction.inputFileManagement.InputFileReader;
+import org.fermat.fermatTransaction.inputFileManagement.InputFileRow;
+import org.fermat.telemetry.PhaseTimer;
+import org.fermat.telemetry.Telemetry;
 import org.fermat.transaction.Utils;
 import org.fermatj.core.Address;
 import org.fermatj.core.AddressFormatException;
@@ -16,6 +20,8 @@ import org.spongycastle.util.encoders.Hex;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Created by rodrigo on 7/25/16.
@@ -24,11 +30,16 @@ public class FermatTransactionBuilder {
     //class variables
     private List<FermatTransaction> fermatTransactions;
     private final InputFileReader fileReader;
+    private final boolean isCompiledPlan;
     private long totalFermats;
+    private final FermatTransactionsSummary summary;
 
     //class constants
+    private final ExecutionContext context;
     private final File inputFile;
-    private int EXPECTED_COLUMN_COUNT = 6;
+    private int EXPECTED_COLUMN_COUNT = InputFileRow.COLUMN_COUNT;
+    private static final int VALIDATION_BLOCK_SIZE = 64 * 1024; // rows read before validating them
+    private static final int VALIDATION_TASK_SIZE = 512; // rows validated on a single thread
 
 
     /**
@@ -65,18 +76,25 @@ public class FermatTransactionBuilder {
 
     /**
      * constructor
+     * @param context the job the input file is distributed on
      * @param inputFile
      */
-    public FermatTransactionBuilder(File inputFile) throws  TransactionsInputFileNotValidException {
+    public FermatTransactionBuilder(ExecutionContext context, File inputFile) throws  TransactionsInputFileNotValidException {
+        Preconditions.checkNotNull(context);
         Preconditions.checkNotNull(inputFile);
 
+        this.context = context;
         this.inputFile = inputFile;
         this.fileReader = new InputFileReader(this.inputFile);
 
         //isntantiate an empty list
         fermatTransactions = new ArrayList<>();
+        summary = new FermatTransactionsSummary(context);
 
-        this.validateInputFileStructure();
+        // a compiled plan was already validated when it was generated.
+        this.isCompiledPlan = CompiledPlanFile.isCompiledPlan(inputFile);
+        if (!isCompiledPlan)
+            this.validateInputFileStructure();
     }
 
 
@@ -84,6 +102,22 @@ public class FermatTransactionBuilder {
         return fermatTransactions;
     }
 
+    /**
+     * the summary of the generated transactions, filled as each block of rows is accepted.
+     * @return
+     */
+    public FermatTransactionsSummary getSummary() {
+        return summary;
+    }
+
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    public ExecutionContext getContext() {
+        return context;
+    }
+
     /**
      * makes sure of the format of the input file is correct
      */
@@ -95,11 +129,22 @@ public class FermatTransactionBuilder {
          */
 
         try {
-            fileReader.read();
+            fileReader.open();
+            validateHeader();
         } catch (FileNotFoundException e) {
             throw new TransactionsInputFileNotValidException("The specified file " + inputFile.getAbsolutePath() + " does not exists.");
+        } catch (IOException e) {
+            throw new TransactionsInputFileNotValidException("The specified file " + inputFile.getAbsolutePath() + " can't be read. " + e.getMessage());
+        } finally {
+            closeFileReader();
         }
+    }
 
+    /**
+     * validates the header read from the input file.
+     * @throws TransactionsInputFileNotValidException
+     */
+    private void validateHeader() throws TransactionsInputFileNotValidException {
         // validate column count
         List<String> columns = fileReader.getHeader();
         if (columns.size() != EXPECTED_COLUMN_COUNT)
@@ -112,56 +157,189 @@ public class FermatTransactionBuilder {
             if (!columns.get(i).equalsIgnoreCase(ColumnHeaders.getByIndex(i).name()))
                 throw new TransactionsInputFileNotValidException("Missing column " +  ColumnHeaders.getByIndex(i).toString() + " on input file. Found columns are " + columns.toString());
         }
+    }
 
-        //validate we have at least one transaction
-        if (fileReader.getRows().size() <  2)
-            throw new TransactionsInputFileNotValidException("No transactions detected on the input file");
+    private void closeFileReader() {
+        try {
+            fileReader.close();
+        } catch (IOException e) {
+            // nothing else to do with the file.
+        }
+    }
 
 
+    /**
+     * generates the list of Fermat Transactions by streaming the rows of the file.
+     * Rows are validated in blocks on all cores and every error found is reported at the end, with its line number.
+     * @throws IOException
+     * @throws TransactionsInputFileNotValidException
+     */
+    public void generateTransactions() throws TransactionsInputFileNotValidException, IOException {
+        if (isCompiledPlan){
+            loadCompiledPlan();
+            return;
+        }
+
+        int recordCount = 0;
+        List<InputFileRowError> errors = new ArrayList<>();
+        ForkJoinPool validationPool = new ForkJoinPool();
+
+        try {
+            fileReader.open();
+            validateHeader();
+
+            List<InputFileRow> block = new ArrayList<>(VALIDATION_BLOCK_SIZE);
+            PhaseTimer readTimer = Telemetry.start(Telemetry.INPUT_FILE_READ);
+            InputFileRow row;
+            while ((row = fileReader.nextRow()) != null){
+                recordCount++;
+                block.add(row);
+
+                if (block.size() == VALIDATION_BLOCK_SIZE){
+                    readTimer.stop(block.size());
+                    validateBlock(validationPool, block, errors);
+                    block.clear();
+                    readTimer = Telemetry.start(Telemetry.INPUT_FILE_READ);
+                }
+            }
+            readTimer.stop(block.size());
+            validateBlock(validationPool, block, errors);
+        } finally {
+            closeFileReader();
+            validationPool.shutdown();
+        }
+
+        if (!errors.isEmpty())
+            throw new TransactionsInputFileNotValidException("The input file has " + errors.size() + " invalid rows.", errors);
+
+        //validate we have at least one transaction
+        if (recordCount <  2)
+            throw new TransactionsInputFileNotValidException("No transactions detected on the input file");
     }
 
+    /**
+     * loads the transactions of a compiled plan, without parsing or validating the addresses again.
+     * @throws IOException
+     * @throws TransactionsInputFileNotValidException
+     */
+    private void loadCompiledPlan() throws IOException, TransactionsInputFileNotValidException {
+        PhaseTimer readTimer = Telemetry.start(Telemetry.INPUT_FILE_READ);
+        for (FermatTransaction fermatTransaction : CompiledPlanFile.read(inputFile, context)){
+            totalFermats = totalFermats + fermatTransaction.getFermats().getValue();
+            fermatTransactions.add(fermatTransaction);
+            summary.add(fermatTransaction);
+        }
+        readTimer.stop(fermatTransactions.size());
+    }
 
     /**
-     * generates the list of Fermat Transactions by reading from the file
+     * stores the generated transactions as a compiled plan that can later be used as input file.
+     * @param outputFile
      * @throws IOException
-     * @throws AddressFormatException
      */
-    public void generateTransactions() throws AddressFormatException, TransactionsInputFileNotValidException {
-        int recordCount = fileReader.getRows().size();
+    public void compilePlan(File outputFile) throws IOException {
+        CompiledPlanFile.write(outputFile, context.getNetworkParameters(), fermatTransactions);
+    }
+
+    /**
+     * validates a block of rows in parallel and adds the generated transactions in file order.
+     * @param validationPool
+     * @param block
+     * @param errors collects the errors found on the block
+     */
+    private void validateBlock(ForkJoinPool validationPool, List<InputFileRow> block, List<InputFileRowError> errors) {
+        if (block.isEmpty())
+            return;
+
+        FermatTransaction[][] blockTransactions = new FermatTransaction[block.size()][];
+        errors.addAll(validationPool.invoke(new RowValidationTask(context, block, blockTransactions, 0, block.size())));
+
+        // once we have errors, there is no point on keeping the transactions.
+        if (!errors.isEmpty())
+            return;
 
-        for (List<String> row : fileReader.getRows()){
-            // if no mark in the send column, we skeep the transaction
-            if (row.size() < 5 || row.get(ColumnHeaders.Send.index).isEmpty())
+        for (FermatTransaction[] rowTransactions : blockTransactions){
+            if (rowTransactions == null)
                 continue;
 
-            if (row.size() > 5 && !row.get(ColumnHeaders.Transaction.index).isEmpty())
-                throw new TransactionsInputFileNotValidException("Transaction marked to send already has a previous IoP transaction assigned");
+            for (FermatTransaction fermatTransaction : rowTransactions){
+                totalFermats = totalFermats + fermatTransaction.getFermats().getValue();
+                fermatTransactions.add(fermatTransaction);
+                summary.add(fermatTransaction);
+            }
+        }
+    }
 
-            String name = row.get(ColumnHeaders.Name.index);
+    /**
+     * creates the fermat transactions of the passed row. Rows with a vesting schedule generate one for each tranche.
+     * @param context
+     * @param row
+     * @return the transactions, or null if the row is not marked to be sent.
+     * @throws AddressFormatException
+     * @throws TransactionsInputFileNotValidException
+     */
+    private static FermatTransaction[] createTransactions(ExecutionContext context, InputFileRow row) throws AddressFormatException, TransactionsInputFileNotValidException {
+        // if no mark in the send column, we skeep the transaction
+        if (row.isEmpty(ColumnHeaders.Send.index))
+            return null;
 
-            // create the publicKey address
-            Address address = new Address(Main.getNetworkParameters(), row.get(ColumnHeaders.Address.index));
+        if (!row.isEmpty(ColumnHeaders.Transaction.index))
+            throw new TransactionsInputFileNotValidException("Transaction marked to send already has a previous IoP transaction assigned");
 
-            // get the amount of Fermats
-            long fermatQty = Long.parseLong(row.get(ColumnHeaders.Fermats.index));
-            Coin fermats = getFermatCoin(fermatQty);
+        String name = row.get(ColumnHeaders.Name.index);
 
-            totalFermats = totalFermats + fermats.getValue();
+        // create the publicKey address
+        Address address = new Address(context.getNetworkParameters(), row.get(ColumnHeaders.Address.index));
 
-            FermatTransaction fermatTransaction;
+        // get the amount of Fermats
+        long fermatQty;
+        try {
+            fermatQty = Long.parseLong(row.get(ColumnHeaders.Fermats.index));
+        } catch (NumberFormatException e) {
+            throw new TransactionsInputFileNotValidException("The amount of fermats " + row.get(ColumnHeaders.Fermats.index) + " is not a valid number");
+        }
+        Coin fermats = getFermatCoin(fermatQty);
+
+        // create the fermat transaction, adding the date column if needed.
+        if (!row.isEmpty(ColumnHeaders.DaysForPayment.index)) {
+            String daysForPayment = row.get(ColumnHeaders.DaysForPayment.index);
+            if (VestingSchedule.isSchedule(daysForPayment))
+                return createTranches(context, name, address, fermats, VestingSchedule.parse(daysForPayment));
+
+            int days;
+            try {
+                days = Integer.parseInt(daysForPayment);
+            } catch (NumberFormatException e) {
+                throw new TransactionsInputFileNotValidException("The days for payment " + daysForPayment + " is not a valid number");
+            }
 
-            // create the fermat transaction, adding the date column if needed.
-            if (!row.get(ColumnHeaders.DaysForPayment.index).isEmpty()) {
-                int days = Integer.parseInt(row.get(ColumnHeaders.DaysForPayment.index));
-                if (days > 0)
-                    fermatTransaction = new FermatTransaction(name, address, fermats, days);
-                else
-                    fermatTransaction = new FermatTransaction(name, address, fermats);
-            } else
-                fermatTransaction = new FermatTransaction(name, address, fermats);
+            if (days > 0)
+                return new FermatTransaction[]{new FermatTransaction(name, address, fermats, days, context)};
+        }
 
-            fermatTransactions.add(fermatTransaction);
+        return new FermatTransaction[]{new FermatTransaction(name, address, fermats)};
+    }
+
+    /**
+     * creates a time constrained transaction for each tranche of the passed schedule.
+     * @param context
+     * @param name
+     * @param address
+     * @param fermats the total of the row
+     * @param schedule
+     * @return
+     */
+    private static FermatTransaction[] createTranches(ExecutionContext context, String name, Address address, Coin fermats, VestingSchedule schedule) {
+        FermatTransaction[] tranches = new FermatTransaction[schedule.getTranches()];
+        for (int i = 0; i < tranches.length; i++){
+            Coin trancheFermats = Coin.valueOf(schedule.getTrancheFermats(fermats.getValue(), i));
+            int days = schedule.getDaysForPayment(context.getUnlockTable(), i);
+            if (days > 0)
+                tranches[i] = new FermatTransaction(name, address, trancheFermats, days, context);
+            else
+                tranches[i] = new FermatTransaction(name, address, trancheFermats);
         }
+        return tranches;
     }
 
     /**
@@ -170,7 +348,7 @@ public class FermatTransactionBuilder {
      * @return
      * @throws TransactionsInputFileNotValidException
      */
-    private Coin getFermatCoin(long fermatQty) throws TransactionsInputFileNotValidException {
+    private static Coin getFermatCoin(long fermatQty) throws TransactionsInputFileNotValidException {
         if (fermatQty == 0)
             throw new TransactionsInputFileNotValidException("The amount of fermats can't be zero");
 
@@ -183,4 +361,57 @@ public class FermatTransactionBuilder {
     public long getTotalFermats() {
         return totalFermats;
     }
+
+    /**
+     * Validates a range of rows, splitting it in halves until it is small enough to be done on a single thread.
+     * The transactions of each row are stored at its index, so the result keeps the order of the file.
+     */
+    private static class RowValidationTask extends RecursiveTask<List<InputFileRowError>> {
+        private final ExecutionContext context;
+        private final List<InputFileRow> rows;
+        private final FermatTransaction[][] transactions;
+        private final int start;
+        private final int end;
+
+        RowValidationTask(ExecutionContext context, List<InputFileRow> rows, FermatTransaction[][] transactions, int start, int end) {
+            this.context = context;
+            this.rows = rows;
+            this.transactions = transactions;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<InputFileRowError> compute() {
+            if (end - start > VALIDATION_TASK_SIZE){
+                int middle = (start + end) >>> 1;
+                RowValidationTask left = new RowValidationTask(context, rows, transactions, start, middle);
+                RowValidationTask right = new RowValidationTask(context, rows, transactions, middle, end);
+                left.fork();
+
+                List<InputFileRowError> rightErrors = right.compute();
+                List<InputFileRowError> errors = left.join();
+                if (errors.isEmpty())
+                    return rightErrors;
+
+                errors.addAll(rightErrors);
+                return errors;
+            }
+
+            PhaseTimer validationTimer = Telemetry.start(Telemetry.ROW_VALIDATION);
+            List<InputFileRowError> errors = new ArrayList<>();
+            for (int i = start; i < end; i++){
+                InputFileRow row = rows.get(i);
+                try {
+                    transactions[i] = createTransactions(context, row);
+                } catch (AddressFormatException e) {
+                    errors.add(new InputFileRowError(row.getLineNumber(), "Provided Address " + row.get(ColumnHeaders.Address.index) + " is not valid."));
+                } catch (TransactionsInputFileNotValidException e) {
+                    errors.add(new InputFileRowError(row.getLineNumber(), e.getMessage()));
+                }
+            }
+            validationTimer.stop(end - start);
+            return errors;
+        }
+    }
 }
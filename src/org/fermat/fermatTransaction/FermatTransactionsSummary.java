@@ -1,65 +1,109 @@
 package org.fermat.fermatTransaction;
 
 import com.google.common.base.Preconditions;
-import org.fermat.Main;
+import org.fermat.ExecutionContext;
 import org.fermatj.core.Coin;
 
-import java.util.HashMap;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Created by rodrigo on 7/26/16.
+ * Totals of a plan by recipient and unlock date. Rows can be added one at a time as they are read, and only
+ * the biggest recipients and a few unlock periods are shown on screen. writeReport() stores all of them.
  */
 public class FermatTransactionsSummary {
+    // class constants
+    private static final int TOP_RECIPIENTS = 10;
+    private static final int MAX_UNLOCK_LINES = 12;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
     private long totalFermats;
     private int totalTransactions;
-    private Map<String, Long> userDetail;
+    private final AliasTotals userDetail;
+    private final UnlockHistogram unlockHistogram;
+    private final ExecutionContext context;
     private final List<FermatTransaction> fermatTransactionList;
 
     /**
      * constructor
+     * @param context the job the transactions are distributed on
      * @param fermatTransactionList
      */
-    public FermatTransactionsSummary(List<FermatTransaction> fermatTransactionList) {
+    public FermatTransactionsSummary(ExecutionContext context, List<FermatTransaction> fermatTransactionList) {
+        Preconditions.checkNotNull(context);
         Preconditions.checkNotNull(fermatTransactionList);
 
+        this.context = context;
         this.fermatTransactionList = fermatTransactionList;
 
-        //initialize map
-        userDetail = new HashMap<>();
+        this.userDetail = new AliasTotals();
+        this.unlockHistogram = new UnlockHistogram();
+    }
 
+    /**
+     * constructor of an empty summary, filled with add() as the rows are read.
+     * @param context the job the transactions are distributed on
+     */
+    public FermatTransactionsSummary(ExecutionContext context) {
+        this(context, Collections.<FermatTransaction>emptyList());
     }
 
+    /**
+     * calculates the summary of all the transactions passed on the constructor.
+     */
     public void calculateSummary(){
         //erase previous summary
         resetSummary();
 
-        // calculate amount of transactions
-        this.totalTransactions = fermatTransactionList.size();
+        for (FermatTransaction fermatTransaction : this.fermatTransactionList)
+            add(fermatTransaction);
+    }
+
+    /**
+     * adds a single row to the summary.
+     * @param fermatTransaction
+     */
+    public void add(FermatTransaction fermatTransaction) {
+        long fermats = fermatTransaction.getFermats().getValue();
 
-        for (FermatTransaction fermatTransaction : this.fermatTransactionList){
-            //calculate total fermats to distribute
-            this.totalFermats = totalFermats + fermatTransaction.getFermats().getValue();
+        this.totalTransactions++;
+        this.totalFermats = totalFermats + fermats;
+        userDetail.add(fermatTransaction.getAlias(), fermats);
+        unlockHistogram.add(fermatTransaction.getDaysForPayment(), fermats);
+    }
 
-            // calculate user summary
-            String alias = fermatTransaction.getAlias();
-            long fermats = fermatTransaction.getFermats().getValue();
+    /**
+     * adds the totals of another summary, like the one of each input file of a batch.
+     * @param other
+     */
+    public void addAll(FermatTransactionsSummary other) {
+        Preconditions.checkNotNull(other);
 
-            if (userDetail.containsKey(alias)){
-                long summaryFermats = userDetail.get(alias);
-                userDetail.remove(alias);
-                userDetail.put(alias, fermats + summaryFermats);
-            }
-            else
-                userDetail.put(alias, fermats);
-        }
+        this.totalTransactions = totalTransactions + other.totalTransactions;
+        this.totalFermats = totalFermats + other.totalFermats;
+        userDetail.addAll(other.userDetail);
+        unlockHistogram.addAll(other.unlockHistogram);
     }
 
     private void resetSummary() {
         this.totalFermats = 0;
         this.totalTransactions = 0;
         this.userDetail.clear();
+        this.unlockHistogram.clear();
     }
 
     public long getTotalFermats() {
@@ -70,23 +114,150 @@ public class FermatTransactionsSummary {
         return totalTransactions;
     }
 
-    public Map<String, Long> getUserDetail() {
-        return userDetail;
+    /**
+     * the amount of different users.
+     * @return
+     */
+    public int getUserCount() {
+        return userDetail.size();
+    }
+
+    /**
+     * the fermats sent to the passed user.
+     * @param alias
+     * @return
+     */
+    public long getUserFermats(String alias) {
+        return userDetail.getFermats(alias);
+    }
+
+    /**
+     * the users that receive the most fermats, highest first.
+     * @return
+     */
+    public Map<String, Long> getTopUsers() {
+        Map<String, Long> topUsers = new LinkedHashMap<>();
+        for (int slot : userDetail.getTopSlots(TOP_RECIPIENTS))
+            topUsers.put(userDetail.getAlias(slot), userDetail.getFermatsAt(slot));
+        return topUsers;
+    }
+
+    /**
+     * adds the passed days to the start time of the job.
+     */
+    private Date getUnlockDate(int daysForPayment) {
+        return new Date(context.getUnlockTable().getUnlockTime(daysForPayment));
     }
 
+    /**
+     * a line of the unlock dates shown on screen.
+     */
+    private static class UnlockLine {
+        private final String label;
+        private long rows;
+        private long fermats;
+
+        private UnlockLine(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * groups the unlock histogram by month, or by year if there are too many months.
+     * @return the groups, soonest first.
+     */
+    private List<UnlockLine> getUnlockLines() {
+        int[] slots = unlockHistogram.getSortedSlots();
+        List<UnlockLine> lines = groupUnlockSlots(slots, new SimpleDateFormat("yyyy/MM"));
+        if (lines.size() > MAX_UNLOCK_LINES)
+            lines = groupUnlockSlots(slots, new SimpleDateFormat("yyyy"));
+
+        // the rest are shown together on the last line
+        if (lines.size() > MAX_UNLOCK_LINES){
+            UnlockLine later = new UnlockLine("after " + lines.get(MAX_UNLOCK_LINES - 2).label);
+            for (UnlockLine line : lines.subList(MAX_UNLOCK_LINES - 1, lines.size())){
+                later.rows += line.rows;
+                later.fermats += line.fermats;
+            }
+            lines = new ArrayList<>(lines.subList(0, MAX_UNLOCK_LINES - 1));
+            lines.add(later);
+        }
+        return lines;
+    }
+
+    private List<UnlockLine> groupUnlockSlots(int[] slots, DateFormat format) {
+        List<UnlockLine> lines = new ArrayList<>();
+        UnlockLine current = null;
+        for (int slot : slots){
+            int days = unlockHistogram.getDaysAt(slot);
+            String label = days == 0 ? "immediately" : format.format(getUnlockDate(days));
+            if (current == null || !current.label.equals(label)){
+                current = new UnlockLine(label);
+                lines.add(current);
+            }
+            current.rows += unlockHistogram.getRowsAt(slot);
+            current.fermats += unlockHistogram.getFermatsAt(slot);
+        }
+        return lines;
+    }
+
+    /**
+     * writes every user and every days for payment to the passed file.
+     * @param file
+     * @throws IOException
+     */
+    public void writeReport(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CHARSET), 64 * 1024)) {
+            writer.write("Start time of process (Epoch Time): " + context.getEpochTime() + System.lineSeparator());
+            writer.write("Total fermats: " + totalFermats + System.lineSeparator());
+            writer.write("Total rows: " + totalTransactions + System.lineSeparator());
+            writer.write("Users: " + userDetail.size() + System.lineSeparator());
+            writer.write(System.lineSeparator());
+
+            DateFormat format = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+            writer.write("DaysForPayment,UnlockDate,Rows,Fermats" + System.lineSeparator());
+            for (int slot : unlockHistogram.getSortedSlots()){
+                int days = unlockHistogram.getDaysAt(slot);
+                writer.write(days + "," + (days == 0 ? "" : format.format(getUnlockDate(days))) + "," + unlockHistogram.getRowsAt(slot) + "," + unlockHistogram.getFermatsAt(slot) + System.lineSeparator());
+            }
+            writer.write(System.lineSeparator());
+
+            writer.write("Name,Rows,Fermats" + System.lineSeparator());
+            for (int slot : userDetail.getSortedSlots())
+                writer.write(userDetail.getAlias(slot) + "," + userDetail.getRowsAt(slot) + "," + userDetail.getFermatsAt(slot) + System.lineSeparator());
+        }
+    }
+
+    /**
+     * the summary to show on screen. Its length doesn't depend on the amount of users.
+     * @return
+     */
     @Override
     public String toString() {
         StringBuilder output = new StringBuilder();
-        output.append("Start time of process (Epoch Time): " + Main.getEpocTime());
+        output.append("Start time of process (Epoch Time): " + context.getEpochTime());
         output.append(System.lineSeparator());
         output.append("Total IoPs to distribute on a single transaction = " + Coin.valueOf(totalFermats).toFriendlyString());
         output.append(System.lineSeparator());
         output.append("Total distributions included on a single transaction = " + totalTransactions);
         output.append(System.lineSeparator());
-        output.append("User Distribution: ");
+
+        output.append("Unlock dates: ");
         output.append(System.lineSeparator());
-        for (Map.Entry<String,Long> entry : userDetail.entrySet()){
-            output.append(entry.getKey() + " - " + Coin.valueOf(entry.getValue()).toFriendlyString());
+        for (UnlockLine line : getUnlockLines()){
+            output.append(line.label + " - " + line.rows + " rows - " + Coin.valueOf(line.fermats).toFriendlyString());
+            output.append(System.lineSeparator());
+        }
+
+        output.append("User Distribution (" + userDetail.size() + " users): ");
+        output.append(System.lineSeparator());
+        int[] topSlots = userDetail.getTopSlots(TOP_RECIPIENTS);
+        for (int slot : topSlots){
+            output.append(userDetail.getAlias(slot) + " - " + Coin.valueOf(userDetail.getFermatsAt(slot)).toFriendlyString());
+            output.append(System.lineSeparator());
+        }
+        if (userDetail.size() > topSlots.length){
+            output.append("... and " + (userDetail.size() - topSlots.length) + " more users.");
             output.append(System.lineSeparator());
         }
         return output.toString();
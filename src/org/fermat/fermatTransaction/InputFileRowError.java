@@ -0,0 +1,32 @@
+package org.fermat.fermatTransaction;
+
+/**
+ * An error found while validating a row of the input file.
+ */
+public class InputFileRowError {
+    private final int lineNumber;
+    private final String message;
+
+    /**
+     * constructor
+     * @param lineNumber the line of the input file with the error
+     * @param message
+     */
+    public InputFileRowError(int lineNumber, String message) {
+        this.lineNumber = lineNumber;
+        this.message = message;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "Line " + lineNumber + ": " + message;
+    }
+}
@@ -1,10 +1,29 @@
 package org.fermat.fermatTransaction;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Created by rodrigo on 7/26/16.
  */
 public class TransactionsInputFileNotValidException extends Exception {
+    private final List<InputFileRowError> rowErrors;
+
     public TransactionsInputFileNotValidException(String message) {
         super(message);
+        this.rowErrors = Collections.emptyList();
+    }
+
+    public TransactionsInputFileNotValidException(String message, List<InputFileRowError> rowErrors) {
+        super(message);
+        this.rowErrors = rowErrors;
+    }
+
+    /**
+     * the errors found on each row of the input file, in file order.
+     * @return
+     */
+    public List<InputFileRowError> getRowErrors() {
+        return rowErrors;
     }
 }
@@ -0,0 +1,134 @@
+package org.fermat.fermatTransaction;
+
+import java.util.Arrays;
+
+/**
+ * Rows and fermats of a plan by days for payment, kept on an open addressing table of primitive arrays.
+ * Plans usually have a few different days for payment, so the table stays small.
+ */
+class UnlockHistogram {
+    // class constants
+    private static final int MIN_CAPACITY = 16;
+    private static final int EMPTY = -1;
+
+    private int[] days;
+    private long[] fermats;
+    private int[] rows;
+    private int size;
+
+    UnlockHistogram() {
+        clear();
+    }
+
+    /**
+     * adds a row paid after the passed days.
+     * @param daysForPayment 0 if not time constrained
+     * @param rowFermats
+     */
+    void add(int daysForPayment, long rowFermats) {
+        add(daysForPayment, rowFermats, 1);
+    }
+
+    /**
+     * adds the rows of another histogram.
+     * @param other
+     */
+    void addAll(UnlockHistogram other) {
+        for (int slot = 0; slot < other.days.length; slot++){
+            if (other.days[slot] != EMPTY)
+                add(other.days[slot], other.fermats[slot], other.rows[slot]);
+        }
+    }
+
+    private void add(int daysForPayment, long addedFermats, int addedRows) {
+        int slot = findSlot(days, daysForPayment);
+        if (days[slot] == EMPTY){
+            days[slot] = daysForPayment;
+            size++;
+        }
+        fermats[slot] += addedFermats;
+        rows[slot] += addedRows;
+
+        if (size * 2 > days.length)
+            resize(days.length * 2);
+    }
+
+    private static int findSlot(int[] table, int key) {
+        int mask = table.length - 1;
+        int slot = (key * 0x9E3779B9 >>> 16) & mask;
+        while (table[slot] != EMPTY && table[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        int[] oldDays = days;
+        long[] oldFermats = fermats;
+        int[] oldRows = rows;
+
+        days = newTable(capacity);
+        fermats = new long[capacity];
+        rows = new int[capacity];
+        for (int i = 0; i < oldDays.length; i++){
+            if (oldDays[i] == EMPTY)
+                continue;
+
+            int slot = findSlot(days, oldDays[i]);
+            days[slot] = oldDays[i];
+            fermats[slot] = oldFermats[i];
+            rows[slot] = oldRows[i];
+        }
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    void clear() {
+        days = newTable(MIN_CAPACITY);
+        fermats = new long[MIN_CAPACITY];
+        rows = new int[MIN_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * the amount of different days for payment.
+     * @return
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * the slots of every days for payment, soonest first.
+     * @return
+     */
+    int[] getSortedSlots() {
+        int[] sortedDays = new int[size];
+        int found = 0;
+        for (int value : days){
+            if (value != EMPTY)
+                sortedDays[found++] = value;
+        }
+        Arrays.sort(sortedDays);
+
+        int[] slots = new int[size];
+        for (int i = 0; i < size; i++)
+            slots[i] = findSlot(days, sortedDays[i]);
+        return slots;
+    }
+
+    int getDaysAt(int slot) {
+        return days[slot];
+    }
+
+    long getFermatsAt(int slot) {
+        return fermats[slot];
+    }
+
+    int getRowsAt(int slot) {
+        return rows[slot];
+    }
+}
@@ -0,0 +1,115 @@
+package org.fermat.fermatTransaction;
+
+import com.google.common.base.Preconditions;
+import org.fermat.UnlockTable;
+
+/**
+ * Schedule of a row of the input file paid on several time constrained outputs: a cliff in days and an amount of
+ * monthly or quarterly tranches. The first tranche unlocks at the end of the cliff and each following one a period
+ * later, counting months from the date the cliff ends. The fermats are split evenly between the tranches, with the remainder on the last one.
+ * Written on the DaysForPayment column as [cliff days]+[tranches]m for monthly or [cliff days]+[tranches]q for
+ * quarterly tranches. For example 365+12m pays a year from now and then every month, twelve times.
+ */
+public class VestingSchedule {
+    // class constants
+    public static final int MAX_TRANCHES = 240;
+    private static final int MONTHLY = 1;
+    private static final int QUARTERLY = 3;
+
+    private final int cliffDays;
+    private final int tranches;
+    private final int periodMonths;
+
+    /**
+     * constructor
+     * @param cliffDays days until the first tranche unlocks
+     * @param tranches amount of outputs
+     * @param periodMonths months between tranches
+     */
+    public VestingSchedule(int cliffDays, int tranches, int periodMonths) {
+        Preconditions.checkArgument(cliffDays >= 0, "The cliff can't be negative.");
+        Preconditions.checkArgument(tranches > 0 && tranches <= MAX_TRANCHES, "The amount of tranches must be between 1 and " + MAX_TRANCHES);
+        Preconditions.checkArgument(periodMonths > 0, "The period must be at least a month.");
+
+        this.cliffDays = cliffDays;
+        this.tranches = tranches;
+        this.periodMonths = periodMonths;
+    }
+
+    /**
+     * true if the passed value of the DaysForPayment column is a schedule instead of an amount of days.
+     * @param value
+     * @return
+     */
+    public static boolean isSchedule(String value) {
+        return value.indexOf('+') > 0;
+    }
+
+    /**
+     * parses a schedule written on the DaysForPayment column.
+     * @param value
+     * @return
+     * @throws TransactionsInputFileNotValidException if the value is not a valid schedule
+     */
+    public static VestingSchedule parse(String value) throws TransactionsInputFileNotValidException {
+        int separator = value.indexOf('+');
+        String period = value.isEmpty() ? "" : value.substring(value.length() - 1).toLowerCase();
+        if (separator <= 0 || !(period.equals("m") || period.equals("q")))
+            throw new TransactionsInputFileNotValidException("The vesting schedule " + value + " is not valid. Expected [cliff days]+[tranches]m or [cliff days]+[tranches]q");
+
+        int cliffDays;
+        int tranches;
+        try {
+            cliffDays = Integer.parseInt(value.substring(0, separator).trim());
+            tranches = Integer.parseInt(value.substring(separator + 1, value.length() - 1).trim());
+        } catch (NumberFormatException e) {
+            throw new TransactionsInputFileNotValidException("The vesting schedule " + value + " is not valid. Expected [cliff days]+[tranches]m or [cliff days]+[tranches]q");
+        }
+
+        if (cliffDays < 0 || tranches < 1 || tranches > MAX_TRANCHES)
+            throw new TransactionsInputFileNotValidException("The vesting schedule " + value + " must have a positive cliff and between 1 and " + MAX_TRANCHES + " tranches.");
+
+        return new VestingSchedule(cliffDays, tranches, period.equals("m") ? MONTHLY : QUARTERLY);
+    }
+
+    public int getCliffDays() {
+        return cliffDays;
+    }
+
+    public int getTranches() {
+        return tranches;
+    }
+
+    public int getPeriodMonths() {
+        return periodMonths;
+    }
+
+    /**
+     * the days from the start of the job until the passed tranche unlocks.
+     * @param unlockTable the table of the job
+     * @param tranche from 0
+     * @return
+     */
+    public int getDaysForPayment(UnlockTable unlockTable, int tranche) {
+        return unlockTable.getMonthDays(cliffDays, tranche * periodMonths);
+    }
+
+    /**
+     * the part of the passed amount paid on the passed tranche.
+     * @param fermats the amount of the row, in the smallest unit
+     * @param tranche from 0
+     * @return
+     */
+    public long getTrancheFermats(long fermats, int tranche) {
+        long trancheFermats = fermats / tranches;
+        if (tranche == tranches - 1)
+            return fermats - trancheFermats * (tranches - 1);
+
+        return trancheFermats;
+    }
+
+    @Override
+    public String toString() {
+        return cliffDays + "+" + tranches + (periodMonths == QUARTERLY ? "q" : "m");
+    }
+}
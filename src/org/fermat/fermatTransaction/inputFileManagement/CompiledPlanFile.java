@@ -0,0 +1,256 @@
+package org.fermat.fermatTransaction.inputFileManagement;
+
+import com.google.common.base.Preconditions;
+import org.fermat.ExecutionContext;
+import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermat.fermatTransaction.TransactionsInputFileNotValidException;
+import org.fermatj.core.Address;
+import org.fermatj.core.Coin;
+import org.fermatj.core.NetworkParameters;
+import org.fermatj.core.WrongNetworkException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary version of an already validated input file.
+ * Rows are stored by column (address version, hash160, amount, days for payment and alias index) followed by
+ * a table with the distinct aliases and a SHA-256 checksum of the whole content.
+ * Loading it maps the file in memory and creates the transactions without parsing or Base58 decoding.
+ */
+public class CompiledPlanFile {
+    // class constants
+    private static final byte[] MAGIC = {'F', 'P', 'L', 'N'};
+    private static final int FORMAT_VERSION = 1;
+    private static final int HASH160_LENGTH = 20;
+    private static final int CHECKSUM_LENGTH = 32;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private CompiledPlanFile() {
+    }
+
+    /**
+     * true if the passed file starts with the compiled plan signature.
+     * @param file
+     * @return
+     */
+    public static boolean isCompiledPlan(File file) {
+        if (!file.isFile() || file.length() < MAGIC.length)
+            return false;
+
+        byte[] signature = new byte[MAGIC.length];
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            if (inputStream.read(signature) != MAGIC.length)
+                return false;
+        } catch (IOException e) {
+            return false;
+        }
+        return Arrays.equals(signature, MAGIC);
+    }
+
+    /**
+     * writes the passed transactions into a compiled plan file.
+     * @param file the file to create or overwrite
+     * @param networkParameters the network the addresses belong to
+     * @param fermatTransactions the validated transactions, in file order
+     * @throws IOException
+     */
+    public static void write(File file, NetworkParameters networkParameters, List<FermatTransaction> fermatTransactions) throws IOException {
+        Preconditions.checkNotNull(file);
+        Preconditions.checkNotNull(networkParameters);
+        Preconditions.checkNotNull(fermatTransactions);
+
+        int count = fermatTransactions.size();
+
+        // aliases are stored once, in the order of their first appearance
+        Map<String, Integer> aliasIndex = new HashMap<>();
+        List<String> aliases = new ArrayList<>();
+        int[] rowAliases = new int[count];
+        for (int i = 0; i < count; i++){
+            String alias = fermatTransactions.get(i).getAlias();
+            Integer index = aliasIndex.get(alias);
+            if (index == null){
+                index = aliases.size();
+                aliasIndex.put(alias, index);
+                aliases.add(alias);
+            }
+            rowAliases[i] = index;
+        }
+
+        MessageDigest digest = getDigest();
+        try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(fileOutputStream, digest)));
+
+            output.write(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            writeString(output, networkParameters.getId());
+            output.writeInt(count);
+
+            for (FermatTransaction fermatTransaction : fermatTransactions)
+                output.writeByte(fermatTransaction.getAddress().getVersion());
+
+            for (FermatTransaction fermatTransaction : fermatTransactions)
+                output.write(fermatTransaction.getAddress().getHash160());
+
+            for (FermatTransaction fermatTransaction : fermatTransactions)
+                output.writeLong(fermatTransaction.getFermats().getValue());
+
+            for (FermatTransaction fermatTransaction : fermatTransactions)
+                output.writeInt(fermatTransaction.isTimeContrained() ? fermatTransaction.getDaysForPayment() : 0);
+
+            for (int rowAlias : rowAliases)
+                output.writeInt(rowAlias);
+
+            output.writeInt(aliases.size());
+            for (String alias : aliases)
+                writeString(output, alias);
+
+            // the checksum covers everything written so far
+            output.flush();
+            fileOutputStream.write(digest.digest());
+            fileOutputStream.getFD().sync();
+        }
+    }
+
+    /**
+     * loads the transactions stored on the compiled plan file.
+     * @param file
+     * @param context the job we are running. Its network must match the one used to compile the plan.
+     * @return the transactions, in the order of the original input file.
+     * @throws IOException
+     * @throws TransactionsInputFileNotValidException if the file is corrupted or belongs to another network
+     */
+    public static List<FermatTransaction> read(File file, ExecutionContext context) throws IOException, TransactionsInputFileNotValidException {
+        Preconditions.checkNotNull(file);
+        Preconditions.checkNotNull(context);
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size < MAGIC.length + CHECKSUM_LENGTH)
+                throw new TransactionsInputFileNotValidException("The compiled plan " + file.getAbsolutePath() + " is truncated.");
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            validateChecksum(file, buffer);
+
+            try {
+                return readTransactions(file, buffer, context);
+            } catch (RuntimeException e) {
+                // checksum was right, but the content is not what we expect.
+                throw new TransactionsInputFileNotValidException("The compiled plan " + file.getAbsolutePath() + " is not valid. " + e.getMessage());
+            }
+        }
+    }
+
+    private static List<FermatTransaction> readTransactions(File file, ByteBuffer buffer, ExecutionContext context) throws TransactionsInputFileNotValidException {
+        NetworkParameters networkParameters = context.getNetworkParameters();
+        byte[] signature = new byte[MAGIC.length];
+        buffer.get(signature);
+        if (!Arrays.equals(signature, MAGIC))
+            throw new TransactionsInputFileNotValidException("The file " + file.getAbsolutePath() + " is not a compiled plan.");
+
+        int formatVersion = buffer.getInt();
+        if (formatVersion != FORMAT_VERSION)
+            throw new TransactionsInputFileNotValidException("The compiled plan " + file.getAbsolutePath() + " has an unsupported version " + formatVersion);
+
+        String networkId = readString(buffer);
+        if (!networkId.equals(networkParameters.getId()))
+            throw new TransactionsInputFileNotValidException("The compiled plan was generated for network " + networkId + " and can't be used on " + networkParameters.getId());
+
+        int count = buffer.getInt();
+
+        // column offsets
+        int versionsOffset = buffer.position();
+        int hashesOffset = versionsOffset + count;
+        int fermatsOffset = hashesOffset + count * HASH160_LENGTH;
+        int daysOffset = fermatsOffset + count * 8;
+        int aliasesOffset = daysOffset + count * 4;
+        int stringTableOffset = aliasesOffset + count * 4;
+
+        buffer.position(stringTableOffset);
+        String[] aliases = new String[buffer.getInt()];
+        for (int i = 0; i < aliases.length; i++)
+            aliases[i] = readString(buffer);
+
+        List<FermatTransaction> fermatTransactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            int version = buffer.get(versionsOffset + i) & 0xFF;
+
+            byte[] hash160 = new byte[HASH160_LENGTH];
+            buffer.position(hashesOffset + i * HASH160_LENGTH);
+            buffer.get(hash160);
+
+            Coin fermats = Coin.valueOf(buffer.getLong(fermatsOffset + i * 8));
+            int days = buffer.getInt(daysOffset + i * 4);
+            String alias = aliases[buffer.getInt(aliasesOffset + i * 4)];
+
+            Address address;
+            try {
+                address = new Address(networkParameters, version, hash160);
+            } catch (WrongNetworkException e) {
+                throw new TransactionsInputFileNotValidException("The compiled plan has an address that is not valid on " + networkParameters.getId());
+            }
+
+            if (days > 0)
+                fermatTransactions.add(new FermatTransaction(alias, address, fermats, days, context));
+            else
+                fermatTransactions.add(new FermatTransaction(alias, address, fermats));
+        }
+
+        return fermatTransactions;
+    }
+
+    private static void validateChecksum(File file, MappedByteBuffer buffer) throws TransactionsInputFileNotValidException {
+        int contentLength = buffer.capacity() - CHECKSUM_LENGTH;
+
+        ByteBuffer content = buffer.duplicate();
+        content.limit(contentLength);
+        MessageDigest digest = getDigest();
+        digest.update(content);
+
+        byte[] expected = new byte[CHECKSUM_LENGTH];
+        ByteBuffer checksum = buffer.duplicate();
+        checksum.position(contentLength);
+        checksum.get(expected);
+
+        if (!MessageDigest.isEqual(expected, digest.digest()))
+            throw new TransactionsInputFileNotValidException("The compiled plan " + file.getAbsolutePath() + " is corrupted. Checksum doesn't match.");
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(CHARSET);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // can't happen, SHA-256 is always available.
+        }
+    }
+}
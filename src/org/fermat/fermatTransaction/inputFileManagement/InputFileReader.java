@@ -2,20 +2,41 @@ package org.fermat.fermatTransaction.inputFileManagement;
 
 import com.google.common.base.Preconditions;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * Created by rodrigo on 7/28/16.
+ * Streaming reader of the input file. The file is parsed in a single pass straight from a byte buffer
+ * and rows are handed out one at a time, so memory use does not depend on the size of the file.
  */
-public class InputFileReader {
+public class InputFileReader implements Closeable {
+    // class constants
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte SEPARATOR = ',';
+    private static final byte NEW_LINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final byte SPACE = ' ';
+
     final private File inputFile;
-    List<String> header;
-    List<List<String>> rows;
+    private List<String> header;
+
+    // stream state
+    private InputStream inputStream;
+    private final byte[] buffer;
+    private int bufferPosition;
+    private int bufferLimit;
+    private byte[] field;
+    private int lineNumber;
 
     /**
      * constructor
@@ -29,58 +50,151 @@ public class InputFileReader {
 
         //initialize clasess
         header = new ArrayList<>();
-        rows = new ArrayList<>();
+        buffer = new byte[BUFFER_SIZE];
+        field = new byte[256];
     }
 
-    public void read() throws FileNotFoundException {
-        List<String> row = new ArrayList<>();
-        Scanner scanner = new Scanner(inputFile);
-        while (scanner.hasNext()){
-            row =  Arrays.asList(scanner.nextLine().split(","));
-            rows.add(removeSpaces(row));
-        }
+    /**
+     * opens the file and reads the header line. Rows are then available with nextRow()
+     * @throws FileNotFoundException
+     */
+    public void open() throws IOException {
+        close();
 
-        header = prepareHeader(rows.get(0));
+        inputStream = new FileInputStream(inputFile);
+        bufferPosition = 0;
+        bufferLimit = 0;
+        lineNumber = 0;
 
-        //remove header from rows collection
-        rows.remove(0);
-        scanner.close();
+        List<String> firstLine = readLine();
+        if (firstLine == null)
+            header = new ArrayList<>();
+        else
+            header = prepareHeader(firstLine);
     }
 
     public List<String> getHeader() {
         return header;
     }
 
-    public List<List<String>> getRows() {
-        return rows;
+    /**
+     * gets the next row of the file, skipping empty lines.
+     * @return the next row, or null if the end of the file was reached.
+     * @throws IOException
+     */
+    public InputFileRow nextRow() throws IOException {
+        Preconditions.checkState(inputStream != null, "Input file is not open.");
+
+        List<String> columns = readLine();
+        if (columns == null)
+            return null;
+
+        return new InputFileRow(lineNumber, columns);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inputStream != null){
+            inputStream.close();
+            inputStream = null;
+        }
     }
 
     /**
-     * fixes header with first letter upper case
-     * @param rows
-     * @return
+     * reads the columns of the next non empty line.
+     * Spaces are removed for columns other than name, or index 0
+     * @return the columns of the line, or null if the end of the file was reached.
+     * @throws IOException
      */
-    private List<String> prepareHeader(List<String> rows){
-        List<String> fixedRows = new ArrayList<>();
-        for (String column : rows){
-            fixedRows.add(column.substring(0, 1).toUpperCase() + column.substring(1).toLowerCase());
+    private List<String> readLine() throws IOException {
+        List<String> columns = new ArrayList<>(InputFileRow.COLUMN_COUNT);
+        int fieldLength = 0;
+        boolean lineHasContent = false;
+
+        while (true){
+            if (bufferPosition == bufferLimit && !fillBuffer()){
+                // end of file
+                if (!lineHasContent)
+                    return null;
+
+                lineNumber++;
+                columns.add(new String(field, 0, fieldLength, CHARSET));
+                return columns;
+            }
+
+            byte current = buffer[bufferPosition++];
+
+            if (current == NEW_LINE){
+                lineNumber++;
+                if (!lineHasContent) {
+                    columns.clear();
+                    fieldLength = 0;
+                    continue;
+                }
+
+                columns.add(new String(field, 0, fieldLength, CHARSET));
+                return columns;
+            }
+
+            if (current == CARRIAGE_RETURN)
+                continue;
+
+            if (current != SPACE)
+                lineHasContent = true;
+
+            if (current == SEPARATOR){
+                columns.add(new String(field, 0, fieldLength, CHARSET));
+                fieldLength = 0;
+                continue;
+            }
+
+            if (current == SPACE && !columns.isEmpty())
+                continue;
+
+            if (fieldLength == field.length)
+                field = Arrays.copyOf(field, field.length * 2);
+
+            field[fieldLength++] = current;
         }
+    }
 
-        return fixedRows;
+    /**
+     * loads the next block of the file into the buffer.
+     * @return false if we reached the end of the file
+     * @throws IOException
+     */
+    private boolean fillBuffer() throws IOException {
+        int read = inputStream.read(buffer, 0, buffer.length);
+        while (read == 0)
+            read = inputStream.read(buffer, 0, buffer.length);
+
+        if (read < 0)
+            return false;
+
+        bufferPosition = 0;
+        bufferLimit = read;
+        return true;
     }
 
     /**
-     * removes empty spaces for columns other than name, or index 0
-     * @param listToFix
+     * fixes header with first letter upper case
+     * @param rows
      * @return
      */
-    private List<String> removeSpaces(List<String> listToFix){
-        List<String> correctedList = new ArrayList<>();
-        correctedList.add(listToFix.get(0));
-        for (int i=1; i<listToFix.size(); i++){
-            correctedList.add(listToFix.get(i).replace(" ", ""));
+    private List<String> prepareHeader(List<String> rows){
+        List<String> fixedRows = new ArrayList<>();
+        // trailing empty columns are ignored
+        int size = rows.size();
+        while (size > 0 && rows.get(size - 1).isEmpty())
+            size--;
+
+        for (String column : rows.subList(0, size)){
+            if (column.isEmpty())
+                fixedRows.add(column);
+            else
+                fixedRows.add(column.substring(0, 1).toUpperCase() + column.substring(1).toLowerCase());
         }
 
-        return correctedList;
+        return fixedRows;
     }
 }
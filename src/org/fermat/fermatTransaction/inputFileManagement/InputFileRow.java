@@ -0,0 +1,60 @@
+package org.fermat.fermatTransaction.inputFileManagement;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+
+/**
+ * A single row of the input file, with the line number it was read from.
+ * Columns missing at the end of the line are returned as empty values.
+ */
+public class InputFileRow {
+    public static final int COLUMN_COUNT = 6;
+
+    private final int lineNumber;
+    private final List<String> columns;
+
+    /**
+     * constructor
+     * @param lineNumber the line of the file, starting at 1 with the header.
+     * @param columns
+     */
+    public InputFileRow(int lineNumber, List<String> columns) {
+        Preconditions.checkNotNull(columns);
+
+        this.lineNumber = lineNumber;
+        this.columns = columns;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * gets the value of the passed column or an empty value if the row doesn't have it.
+     * @param index
+     * @return
+     */
+    public String get(int index) {
+        if (index >= columns.size())
+            return "";
+
+        return columns.get(index);
+    }
+
+    public boolean isEmpty(int index) {
+        return get(index).isEmpty();
+    }
+
+    public int size() {
+        return columns.size();
+    }
+
+    @Override
+    public String toString() {
+        return "InputFileRow{" +
+                "lineNumber=" + lineNumber +
+                ", columns=" + columns +
+                '}';
+    }
+}
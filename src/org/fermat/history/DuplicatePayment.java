@@ -0,0 +1,43 @@
+package org.fermat.history;
+
+import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermatj.core.Sha256Hash;
+
+/**
+ * A row of a plan that pays the same address, amount and days for payment as a row of a past distribution.
+ */
+public class DuplicatePayment {
+    private final FermatTransaction row;
+    private final HistoryRow pastRow;
+    private final Sha256Hash pastTransactionHash;
+
+    /**
+     * constructor
+     * @param row the row of the plan
+     * @param pastRow the row already paid
+     * @param pastTransactionHash the transaction that paid it
+     */
+    DuplicatePayment(FermatTransaction row, HistoryRow pastRow, Sha256Hash pastTransactionHash) {
+        this.row = row;
+        this.pastRow = pastRow;
+        this.pastTransactionHash = pastTransactionHash;
+    }
+
+    public FermatTransaction getRow() {
+        return row;
+    }
+
+    public HistoryRow getPastRow() {
+        return pastRow;
+    }
+
+    public Sha256Hash getPastTransactionHash() {
+        return pastTransactionHash;
+    }
+
+    @Override
+    public String toString() {
+        return row.getAlias() + "," + row.getAddress().toString() + "," + row.getFermats().toPlainString() + "," + row.getDaysForPayment()
+                + " already paid to " + pastRow.getAlias() + " by " + pastTransactionHash;
+    }
+}
@@ -0,0 +1,74 @@
+package org.fermat.history;
+
+import com.google.common.base.Preconditions;
+import org.fermatj.core.Sha256Hash;
+
+/**
+ * A past payment to an address: the output that paid it and how it can be redeemed.
+ */
+public class HistoryEntry {
+    // class constants
+    static final int HASH160_LENGTH = 20;
+    static final int TXID_LENGTH = 32;
+
+    private final byte[] hash160;
+    private final byte[] txid;
+    private final int vout;
+    private final long fermats;
+    private final long unlockTime;
+    private final byte[] redeemScript;
+
+    /**
+     * constructor
+     * @param hash160 the hash of the paid address
+     * @param txid the hash of the transaction that paid it
+     * @param vout the index of the output on the transaction
+     * @param fermats the amount paid, in the smallest unit
+     * @param unlockTime epoch time in milliseconds after which the output can be spent. 0 if not time constrained.
+     * @param redeemScript the redeem script of the time constrained output. Empty if not time constrained.
+     */
+    public HistoryEntry(byte[] hash160, byte[] txid, int vout, long fermats, long unlockTime, byte[] redeemScript) {
+        Preconditions.checkArgument(hash160 != null && hash160.length == HASH160_LENGTH, "Invalid address hash.");
+        Preconditions.checkArgument(txid != null && txid.length == TXID_LENGTH, "Invalid transaction hash.");
+        Preconditions.checkNotNull(redeemScript);
+
+        this.hash160 = hash160;
+        this.txid = txid;
+        this.vout = vout;
+        this.fermats = fermats;
+        this.unlockTime = unlockTime;
+        this.redeemScript = redeemScript;
+    }
+
+    public byte[] getHash160() {
+        return hash160;
+    }
+
+    public byte[] getTxid() {
+        return txid;
+    }
+
+    public Sha256Hash getTransactionHash() {
+        return Sha256Hash.wrap(txid);
+    }
+
+    public int getVout() {
+        return vout;
+    }
+
+    public long getFermats() {
+        return fermats;
+    }
+
+    public long getUnlockTime() {
+        return unlockTime;
+    }
+
+    public boolean isTimeConstrained() {
+        return redeemScript.length > 0;
+    }
+
+    public byte[] getRedeemScript() {
+        return redeemScript;
+    }
+}
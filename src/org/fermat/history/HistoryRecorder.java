@@ -0,0 +1,107 @@
+package org.fermat.history;
+
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Preconditions;
+import org.fermat.Main;
+import org.fermat.blockchain.BroadcastHandle;
+import org.fermat.blockchain.BroadcastPipeline;
+import org.fermat.fermatTransaction.ExecutionJournal;
+import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermatj.core.Sha256Hash;
+import org.fermatj.core.Transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records each transaction when it is first sent to peers, so it is known as paid even if a later transaction of
+ * the same distribution fails or the execution crashes: the execution journal gets a broadcasted record and the
+ * history gets the rows the transaction pays.
+ * Transactions of previous executions only get the journal record, and are added to the history from the journal
+ * on the next start.
+ */
+public class HistoryRecorder implements BroadcastPipeline.Listener {
+    private static final Logger logger = Main.logger;
+
+    private final ExecutionJournal journal;
+    private final HistoryStore history;
+
+    // class variables
+    private final Map<Sha256Hash, List<FermatTransaction>> pendingOutputs;
+    private final Set<Sha256Hash> sent;
+
+    /**
+     * constructor
+     * @param journal the open execution journal
+     * @param history the open history
+     */
+    public HistoryRecorder(ExecutionJournal journal, HistoryStore history) {
+        Preconditions.checkNotNull(journal);
+        Preconditions.checkNotNull(history);
+
+        this.journal = journal;
+        this.history = history;
+        this.pendingOutputs = new HashMap<>();
+        this.sent = new HashSet<>();
+    }
+
+    /**
+     * registers the outputs of a plan, so each of its transactions is added to the history once sent.
+     * Must be called before the transactions are broadcasted.
+     * @param outputTransactions the fermat transactions that generated the outputs, with their output set.
+     */
+    public synchronized void addPlan(List<FermatTransaction> outputTransactions) {
+        Preconditions.checkNotNull(outputTransactions);
+
+        for (FermatTransaction outputTransaction : outputTransactions){
+            if (outputTransaction.getOutput() == null)
+                continue;
+
+            Sha256Hash txid = outputTransaction.getOutput().getParentTransaction().getHash();
+            List<FermatTransaction> outputs = pendingOutputs.get(txid);
+            if (outputs == null){
+                outputs = new ArrayList<>();
+                pendingOutputs.put(txid, outputs);
+            }
+            outputs.add(outputTransaction);
+        }
+    }
+
+    @Override
+    public void onStateChanged(BroadcastHandle handle) {
+        // the state may already be past SENT when a confidence change arrives first
+        BroadcastHandle.State state = handle.getState();
+        if (state != BroadcastHandle.State.SENT && state != BroadcastHandle.State.SEEN_BY_PEERS && state != BroadcastHandle.State.CONFIRMED)
+            return;
+
+        // a transaction sent again after a failed attempt is only recorded once
+        Transaction transaction = handle.getTransaction();
+        List<FermatTransaction> outputs;
+        synchronized (this) {
+            if (!sent.add(transaction.getHash()))
+                return;
+            outputs = pendingOutputs.remove(transaction.getHash());
+        }
+
+        try {
+            journal.appendBroadcasted(transaction);
+            journal.sync();
+        } catch (IOException | IllegalStateException e) {
+            logger.error("Unable to record the broadcast of transaction " + transaction.getHashAsString() + " on the execution journal.", e);
+        }
+
+        if (outputs == null)
+            return;
+
+        try {
+            history.addDistribution(outputs);
+        } catch (IOException | IllegalStateException e) {
+            logger.error("Unable to add transaction " + transaction.getHashAsString() + " to the distribution history. It is added from the execution journal on the next start.", e);
+        }
+    }
+}
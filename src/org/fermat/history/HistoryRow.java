@@ -0,0 +1,51 @@
+package org.fermat.history;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A row of the input file paid by a past transaction.
+ */
+public class HistoryRow {
+    private final String alias;
+    private final String address;
+    private final long fermats; // in the smallest unit
+    private final int daysForPayment;
+
+    /**
+     * constructor
+     * @param alias
+     * @param address
+     * @param fermats
+     * @param daysForPayment
+     */
+    public HistoryRow(String alias, String address, long fermats, int daysForPayment) {
+        Preconditions.checkNotNull(alias);
+        Preconditions.checkNotNull(address);
+
+        this.alias = alias;
+        this.address = address;
+        this.fermats = fermats;
+        this.daysForPayment = daysForPayment;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public long getFermats() {
+        return fermats;
+    }
+
+    public int getDaysForPayment() {
+        return daysForPayment;
+    }
+
+    @Override
+    public String toString() {
+        return alias + "," + address + "," + fermats + "," + daysForPayment;
+    }
+}
@@ -0,0 +1,254 @@
+package org.fermat.history;
+
+import com.google.common.base.Preconditions;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, memory mapped file with the payments and rows of one or more past distributions.
+ * Payments are sorted by address hash and rows by transaction hash, so both are found with a binary search.
+ * File format: data area with the redeem scripts and row blocks, address index, transaction index and footer.
+ * Address index entries: hash160, txid, vout, fermats, unlock time, redeem script offset and length.
+ * Transaction index entries: txid, row block offset and length.
+ * Footer: first and last distribution id, entry counts, index offsets, version and magic.
+ */
+class HistorySegment {
+    // class constants
+    static final byte[] MAGIC = {'F', 'H', 'S', 'T'};
+    static final int FORMAT_VERSION = 1;
+    static final int ADDRESS_ENTRY_LENGTH = HistoryEntry.HASH160_LENGTH + HistoryEntry.TXID_LENGTH + 4 + 8 + 8 + 8 + 4;
+    static final int TRANSACTION_ENTRY_LENGTH = HistoryEntry.TXID_LENGTH + 8 + 4;
+    static final int FOOTER_LENGTH = 8 + 8 + 4 + 4 + 8 + 8 + 4 + MAGIC.length;
+    static final long MAX_SEGMENT_LENGTH = Integer.MAX_VALUE;
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final long firstId;
+    private final long lastId;
+    private final int addressCount;
+    private final int transactionCount;
+    private final int addressIndexOffset;
+    private final int transactionIndexOffset;
+
+    private HistorySegment(File file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        int footer = buffer.capacity() - FOOTER_LENGTH;
+        if (footer < 0)
+            throw new IOException("History segment " + file.getAbsolutePath() + " is truncated.");
+
+        byte[] magic = new byte[MAGIC.length];
+        ByteBuffer footerBuffer = buffer.duplicate();
+        footerBuffer.position(buffer.capacity() - MAGIC.length);
+        footerBuffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt(buffer.capacity() - MAGIC.length - 4) != FORMAT_VERSION)
+            throw new IOException(file.getAbsolutePath() + " is not a valid history segment.");
+
+        this.firstId = buffer.getLong(footer);
+        this.lastId = buffer.getLong(footer + 8);
+        this.addressCount = buffer.getInt(footer + 16);
+        this.transactionCount = buffer.getInt(footer + 20);
+        this.addressIndexOffset = (int) buffer.getLong(footer + 24);
+        this.transactionIndexOffset = (int) buffer.getLong(footer + 32);
+
+        if (addressCount < 0 || transactionCount < 0
+                || addressIndexOffset + (long) addressCount * ADDRESS_ENTRY_LENGTH != transactionIndexOffset
+                || transactionIndexOffset + (long) transactionCount * TRANSACTION_ENTRY_LENGTH != footer)
+            throw new IOException("History segment " + file.getAbsolutePath() + " is corrupted.");
+    }
+
+    /**
+     * maps the passed segment.
+     * @param file
+     * @return
+     * @throws IOException if the file is not a complete segment
+     */
+    static HistorySegment open(File file) throws IOException {
+        Preconditions.checkNotNull(file);
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > MAX_SEGMENT_LENGTH)
+                throw new IOException("History segment " + file.getAbsolutePath() + " is too big to map.");
+
+            // the mapping stays valid after the channel is closed
+            return new HistorySegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getFirstId() {
+        return firstId;
+    }
+
+    long getLastId() {
+        return lastId;
+    }
+
+    long getLength() {
+        return buffer.capacity();
+    }
+
+    /**
+     * true if this segment has all the distributions of the passed one.
+     * @param segment
+     * @return
+     */
+    boolean covers(HistorySegment segment) {
+        return this != segment && firstId <= segment.firstId && lastId >= segment.lastId;
+    }
+
+    /**
+     * the payments to the passed address hash.
+     * @param hash160
+     * @return
+     */
+    List<HistoryEntry> findPayments(byte[] hash160) {
+        List<HistoryEntry> payments = new ArrayList<>();
+
+        // first entry not lower than the hash
+        int low = 0;
+        int high = addressCount;
+        while (low < high){
+            int middle = (low + high) >>> 1;
+            if (compare(addressIndexOffset + middle * ADDRESS_ENTRY_LENGTH, hash160) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        for (int i = low; i < addressCount && compare(addressIndexOffset + i * ADDRESS_ENTRY_LENGTH, hash160) == 0; i++)
+            payments.add(readEntry(i));
+
+        return payments;
+    }
+
+    /**
+     * the rows paid by the passed transaction.
+     * @param txid
+     * @return the rows, or an empty list if the transaction is not on this segment.
+     * @throws IOException
+     */
+    List<HistoryRow> findRows(byte[] txid) throws IOException {
+        int low = 0;
+        int high = transactionCount - 1;
+        while (low <= high){
+            int middle = (low + high) >>> 1;
+            int result = compare(transactionIndexOffset + middle * TRANSACTION_ENTRY_LENGTH, txid);
+            if (result < 0)
+                low = middle + 1;
+            else if (result > 0)
+                high = middle - 1;
+            else
+                return readRows(middle);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * adds every payment and row of this segment to the passed writer.
+     * @param writer
+     * @throws IOException
+     */
+    void copyTo(HistorySegmentWriter writer) throws IOException {
+        for (int i = 0; i < addressCount; i++)
+            writer.addEntry(readEntry(i));
+
+        for (int i = 0; i < transactionCount; i++){
+            byte[] txid = new byte[HistoryEntry.TXID_LENGTH];
+            ByteBuffer entry = buffer.duplicate();
+            entry.position(transactionIndexOffset + i * TRANSACTION_ENTRY_LENGTH);
+            entry.get(txid);
+            writer.addRows(txid, readRows(i));
+        }
+    }
+
+    /**
+     * adds every row of this segment to the passed filter.
+     * @param filter
+     * @throws IOException
+     */
+    void addRowsTo(PaymentFilter filter) throws IOException {
+        for (int i = 0; i < transactionCount; i++){
+            for (HistoryRow row : readRows(i))
+                filter.put(row);
+        }
+    }
+
+    /**
+     * the amount of rows on this segment.
+     * @return
+     */
+    long getRowCount() {
+        long rowCount = 0;
+        for (int i = 0; i < transactionCount; i++){
+            int entryOffset = transactionIndexOffset + i * TRANSACTION_ENTRY_LENGTH + HistoryEntry.TXID_LENGTH;
+            // each row block starts with its amount of rows
+            rowCount += buffer.getInt((int) buffer.getLong(entryOffset));
+        }
+        return rowCount;
+    }
+
+    private HistoryEntry readEntry(int index) {
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(addressIndexOffset + index * ADDRESS_ENTRY_LENGTH);
+
+        byte[] hash160 = new byte[HistoryEntry.HASH160_LENGTH];
+        entry.get(hash160);
+        byte[] txid = new byte[HistoryEntry.TXID_LENGTH];
+        entry.get(txid);
+        int vout = entry.getInt();
+        long fermats = entry.getLong();
+        long unlockTime = entry.getLong();
+        int scriptOffset = (int) entry.getLong();
+        byte[] redeemScript = new byte[entry.getInt()];
+
+        ByteBuffer script = buffer.duplicate();
+        script.position(scriptOffset);
+        script.get(redeemScript);
+
+        return new HistoryEntry(hash160, txid, vout, fermats, unlockTime, redeemScript);
+    }
+
+    private List<HistoryRow> readRows(int index) throws IOException {
+        int entryOffset = transactionIndexOffset + index * TRANSACTION_ENTRY_LENGTH + HistoryEntry.TXID_LENGTH;
+        byte[] block = new byte[buffer.getInt(entryOffset + 8)];
+        ByteBuffer blockBuffer = buffer.duplicate();
+        blockBuffer.position((int) buffer.getLong(entryOffset));
+        blockBuffer.get(block);
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(block));
+        int rowCount = input.readInt();
+        List<HistoryRow> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++)
+            rows.add(new HistoryRow(input.readUTF(), input.readUTF(), input.readLong(), input.readInt()));
+        return rows;
+    }
+
+    /**
+     * compares the key stored at the passed position with the passed one, as unsigned bytes.
+     */
+    private int compare(int position, byte[] key) {
+        for (int i = 0; i < key.length; i++){
+            int result = (buffer.get(position + i) & 0xff) - (key[i] & 0xff);
+            if (result != 0)
+                return result;
+        }
+        return 0;
+    }
+}
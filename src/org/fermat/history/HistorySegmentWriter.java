@@ -0,0 +1,153 @@
+package org.fermat.history;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects payments and rows in memory and writes them as an immutable, sorted HistorySegment.
+ */
+class HistorySegmentWriter {
+    // class constants
+    private static final Comparator<byte[]> BYTES_COMPARATOR = UnsignedBytes.lexicographicalComparator();
+    private static final Comparator<HistoryEntry> ENTRY_COMPARATOR = new Comparator<HistoryEntry>() {
+        @Override
+        public int compare(HistoryEntry entry1, HistoryEntry entry2) {
+            int result = BYTES_COMPARATOR.compare(entry1.getHash160(), entry2.getHash160());
+            if (result == 0)
+                result = BYTES_COMPARATOR.compare(entry1.getTxid(), entry2.getTxid());
+            if (result == 0)
+                result = Integer.compare(entry1.getVout(), entry2.getVout());
+            return result;
+        }
+    };
+
+    private final List<HistoryEntry> entries;
+    private final Map<byte[], List<HistoryRow>> rows;
+
+    HistorySegmentWriter() {
+        this.entries = new ArrayList<>();
+        this.rows = new TreeMap<>(BYTES_COMPARATOR);
+    }
+
+    void addEntry(HistoryEntry entry) {
+        Preconditions.checkNotNull(entry);
+        entries.add(entry);
+    }
+
+    /**
+     * adds rows paid by the passed transaction.
+     * @param txid
+     * @param transactionRows
+     */
+    void addRows(byte[] txid, List<HistoryRow> transactionRows) {
+        Preconditions.checkArgument(txid != null && txid.length == HistoryEntry.TXID_LENGTH, "Invalid transaction hash.");
+
+        List<HistoryRow> current = rows.get(txid);
+        if (current == null){
+            current = new ArrayList<>();
+            rows.put(txid, current);
+        }
+        current.addAll(transactionRows);
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty() && rows.isEmpty();
+    }
+
+    /**
+     * writes the segment.
+     * @param file
+     * @param firstId the id of the first distribution on the segment
+     * @param lastId the id of the last distribution on the segment
+     * @throws IOException
+     */
+    void write(File file, long firstId, long lastId) throws IOException {
+        Collections.sort(entries, ENTRY_COMPARATOR);
+
+        try (FileOutputStream fileStream = new FileOutputStream(file)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024));
+
+            // data area: redeem scripts and row blocks, referenced by the indexes
+            long position = 0;
+            long[] scriptOffsets = new long[entries.size()];
+            for (int i = 0; i < entries.size(); i++){
+                byte[] redeemScript = entries.get(i).getRedeemScript();
+                scriptOffsets[i] = position;
+                output.write(redeemScript);
+                position += redeemScript.length;
+            }
+
+            long[] rowOffsets = new long[rows.size()];
+            int[] rowLengths = new int[rows.size()];
+            ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+            DataOutputStream block = new DataOutputStream(blockBytes);
+            int index = 0;
+            for (List<HistoryRow> transactionRows : rows.values()){
+                blockBytes.reset();
+                block.writeInt(transactionRows.size());
+                for (HistoryRow row : transactionRows){
+                    block.writeUTF(row.getAlias());
+                    block.writeUTF(row.getAddress());
+                    block.writeLong(row.getFermats());
+                    block.writeInt(row.getDaysForPayment());
+                }
+                rowOffsets[index] = position;
+                rowLengths[index] = blockBytes.size();
+                blockBytes.writeTo(output);
+                position += blockBytes.size();
+                index++;
+            }
+
+            long addressIndexOffset = position;
+            for (int i = 0; i < entries.size(); i++){
+                HistoryEntry entry = entries.get(i);
+                output.write(entry.getHash160());
+                output.write(entry.getTxid());
+                output.writeInt(entry.getVout());
+                output.writeLong(entry.getFermats());
+                output.writeLong(entry.getUnlockTime());
+                output.writeLong(scriptOffsets[i]);
+                output.writeInt(entry.getRedeemScript().length);
+            }
+            position += (long) entries.size() * HistorySegment.ADDRESS_ENTRY_LENGTH;
+
+            long transactionIndexOffset = position;
+            index = 0;
+            for (byte[] txid : rows.keySet()){
+                output.write(txid);
+                output.writeLong(rowOffsets[index]);
+                output.writeInt(rowLengths[index]);
+                index++;
+            }
+            position += (long) rows.size() * HistorySegment.TRANSACTION_ENTRY_LENGTH;
+
+            if (position + HistorySegment.FOOTER_LENGTH > HistorySegment.MAX_SEGMENT_LENGTH)
+                throw new IOException("History segment " + file.getAbsolutePath() + " would be too big to map.");
+
+            output.writeLong(firstId);
+            output.writeLong(lastId);
+            output.writeInt(entries.size());
+            output.writeInt(rows.size());
+            output.writeLong(addressIndexOffset);
+            output.writeLong(transactionIndexOffset);
+            output.writeInt(HistorySegment.FORMAT_VERSION);
+            output.write(HistorySegment.MAGIC);
+
+            output.flush();
+            fileStream.getFD().sync();
+        }
+    }
+}
@@ -0,0 +1,533 @@
+package org.fermat.history;
+
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Preconditions;
+import org.fermat.ExecutionContext;
+import org.fermat.Main;
+import org.fermat.fermatTransaction.ExecutionJournalReader;
+import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermat.fermatTransaction.FermatTransactionAggregator;
+import org.fermat.transaction.RedeemScriptTemplate;
+import org.fermatj.core.Address;
+import org.fermatj.core.AddressFormatException;
+import org.fermatj.core.Coin;
+import org.fermatj.core.NetworkParameters;
+import org.fermatj.core.Sha256Hash;
+import org.fermatj.core.Transaction;
+import org.fermatj.core.TransactionOutput;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the past distributions, to find which outputs paid an address and which rows a transaction paid.
+ * Each distribution is written as a new sorted segment, and lookups do a binary search on each memory mapped
+ * segment. When there are too many segments the oldest ones are merged into a single one on a background thread,
+ * so lookups take the same time no matter how many distributions were made.
+ * A Bloom filter of every paid row is kept next to the segments to find the rows of a plan that were already paid.
+ */
+public class HistoryStore implements Closeable {
+    // class constants
+    private static final String SEGMENT_EXTENSION = ".segment";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final String FILTER_FILE = "payments.bloom";
+    private static final int MERGE_THRESHOLD = 8;
+    private static final long MERGE_TIMEOUT_SECONDS = 60;
+
+    private static final Logger logger = Main.logger;
+
+    private final File directory;
+
+    // class variables
+    private volatile List<HistorySegment> segments; // oldest first, replaced on each change
+    private long lastId;
+    private ExecutorService mergeExecutor;
+    private boolean merging;
+    private PaymentFilter paymentFilter;
+
+    /**
+     * constructor
+     * @param directory the directory of the segments
+     */
+    public HistoryStore(File directory) {
+        Preconditions.checkNotNull(directory);
+
+        this.directory = directory;
+        this.segments = Collections.emptyList();
+    }
+
+    /**
+     * gets the history directory for the passed network.
+     * @param storeDirectory
+     * @param networkParameters
+     * @return
+     */
+    public static File getHistoryDirectory(File storeDirectory, NetworkParameters networkParameters) {
+        return new File(storeDirectory, "iop-" + networkParameters.getPaymentProtocolId() + ".history");
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * maps the existing segments, creating the directory if needed.
+     * Segments already merged into another one and merges left incomplete are deleted.
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        Preconditions.checkState(mergeExecutor == null, "History already open.");
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create the history directory " + directory.getAbsolutePath());
+
+        File[] temporaryFiles = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(TEMPORARY_EXTENSION);
+            }
+        });
+        for (File temporaryFile : temporaryFiles)
+            delete(temporaryFile);
+
+        File[] segmentFiles = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_EXTENSION);
+            }
+        });
+        List<HistorySegment> openSegments = new ArrayList<>();
+        for (File segmentFile : segmentFiles)
+            openSegments.add(HistorySegment.open(segmentFile));
+
+        // a crash after a merge leaves the merged segments behind
+        List<HistorySegment> current = new ArrayList<>();
+        for (HistorySegment segment : openSegments){
+            boolean covered = false;
+            for (HistorySegment other : openSegments)
+                covered = covered || other.covers(segment);
+
+            if (covered)
+                delete(segment.getFile());
+            else
+                current.add(segment);
+        }
+
+        Collections.sort(current, new Comparator<HistorySegment>() {
+            @Override
+            public int compare(HistorySegment segment1, HistorySegment segment2) {
+                return Long.compare(segment1.getFirstId(), segment2.getFirstId());
+            }
+        });
+        for (HistorySegment segment : current)
+            lastId = Math.max(lastId, segment.getLastId());
+        segments = Collections.unmodifiableList(current);
+
+        // the filter is rebuilt if a crash left it behind the segments
+        paymentFilter = PaymentFilter.load(new File(directory, FILTER_FILE), lastId);
+        if (paymentFilter == null)
+            rebuildFilter(0);
+
+        mergeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "History merge");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduleMerge();
+    }
+
+    /**
+     * adds the outputs of a distribution that was sent to peers.
+     * @param outputTransactions the fermat transactions that generated the outputs, aggregated or not.
+     * @throws IOException
+     */
+    public void addDistribution(List<FermatTransaction> outputTransactions) throws IOException {
+        HistorySegmentWriter writer = new HistorySegmentWriter();
+        Map<Sha256Hash, List<HistoryRow>> transactionRows = new LinkedHashMap<>();
+        List<HistoryRow> paidRows = new ArrayList<>();
+        for (FermatTransaction outputTransaction : outputTransactions){
+            TransactionOutput output = outputTransaction.getOutput();
+            if (output == null)
+                continue;
+
+            Sha256Hash txid = output.getParentTransaction().getHash();
+            byte[] redeemScript = outputTransaction.isTimeContrained() ? outputTransaction.getRedeemScriptProgram() : null;
+            writer.addEntry(new HistoryEntry(
+                    outputTransaction.getAddress().getHash160(),
+                    txid.getBytes(),
+                    output.getIndex(),
+                    outputTransaction.getFermats().getValue(),
+                    outputTransaction.isTimeContrained() ? outputTransaction.getPaymentEpochTime() : 0,
+                    redeemScript == null ? new byte[0] : redeemScript));
+
+            List<HistoryRow> rows = transactionRows.get(txid);
+            if (rows == null){
+                rows = new ArrayList<>();
+                transactionRows.put(txid, rows);
+            }
+            for (FermatTransaction row : outputTransaction.getSourceTransactions()){
+                HistoryRow paidRow = new HistoryRow(row.getAlias(), row.getAddress().toString(), row.getFermats().getValue(), row.getDaysForPayment());
+                rows.add(paidRow);
+                paidRows.add(paidRow);
+            }
+        }
+
+        for (Map.Entry<Sha256Hash, List<HistoryRow>> entry : transactionRows.entrySet())
+            writer.addRows(entry.getKey().getBytes(), entry.getValue());
+
+        if (!writer.isEmpty())
+            add(writer, paidRows);
+    }
+
+    /**
+     * adds the transactions of the passed execution journal that were sent but are not on the history yet, like the
+     * ones sent before a later transaction of the same execution failed or before the execution crashed.
+     * The output rows are created again from the plan record of each transaction.
+     * @param journalFile
+     * @param networkParameters the network of the history. Plans of other networks are ignored.
+     * @return the amount of transactions added.
+     * @throws IOException if the journal can't be read or has a row that is not valid
+     */
+    public int addFromJournal(File journalFile, NetworkParameters networkParameters) throws IOException {
+        Preconditions.checkNotNull(journalFile);
+        Preconditions.checkNotNull(networkParameters);
+
+        if (!journalFile.exists())
+            return 0;
+
+        // most of the sent transactions are already on the history
+        Set<String> missing = new HashSet<>();
+        try (ExecutionJournalReader reader = new ExecutionJournalReader(journalFile)) {
+            ExecutionJournalReader.Record record;
+            while ((record = reader.next()) != null){
+                if (record instanceof ExecutionJournalReader.BroadcastedRecord){
+                    String hash = ((ExecutionJournalReader.BroadcastedRecord) record).getHash();
+                    if (!missing.contains(hash) && getRows(Sha256Hash.wrap(hash)).isEmpty())
+                        missing.add(hash);
+                }
+            }
+        }
+        if (missing.isEmpty())
+            return 0;
+
+        List<FermatTransaction> outputTransactions = new ArrayList<>();
+        int added = 0;
+        try (ExecutionJournalReader reader = new ExecutionJournalReader(journalFile)) {
+            ExecutionJournalReader.PlanRecord plan = null;
+            List<FermatTransaction> planRows = null;
+            ExecutionJournalReader.Record record;
+            while ((record = reader.next()) != null){
+                if (record instanceof ExecutionJournalReader.PlanRecord){
+                    plan = (ExecutionJournalReader.PlanRecord) record;
+                    planRows = null;
+                    continue;
+                }
+                if (!(record instanceof ExecutionJournalReader.TransactionRecord) || plan == null || !plan.getNetworkId().equals(networkParameters.getId()))
+                    continue;
+
+                ExecutionJournalReader.TransactionRecord transactionRecord = (ExecutionJournalReader.TransactionRecord) record;
+                if (!missing.remove(transactionRecord.getHash()))
+                    continue;
+
+                // the rows are only created for the plans with missing transactions
+                if (planRows == null)
+                    planRows = getRows(plan, networkParameters);
+
+                Transaction transaction = new Transaction(networkParameters, transactionRecord.getRawTransaction());
+                int[] outputIndexes = transactionRecord.getOutputIndexes();
+                for (int i = 0; i < outputIndexes.length; i++){
+                    List<FermatTransaction> outputRows = new ArrayList<>();
+                    for (int row : transactionRecord.getOutputRows(i))
+                        outputRows.add(planRows.get(row));
+
+                    FermatTransaction outputTransaction = FermatTransactionAggregator.aggregate(outputRows).get(0);
+                    outputTransaction.setOutput(transaction.getOutput(outputIndexes[i]));
+                    if (outputTransaction.isTimeContrained())
+                        outputTransaction.setRedeemScriptProgram(RedeemScriptTemplate.createRedeemScript(outputTransaction.getPaymentEpochTime(), outputTransaction.getAddress().getHash160()));
+                    outputTransactions.add(outputTransaction);
+                }
+                added++;
+            }
+        }
+
+        if (!outputTransactions.isEmpty())
+            addDistribution(outputTransactions);
+        return added;
+    }
+
+    /**
+     * creates the rows of a journaled plan, with the days for payment counted from the start time of the plan.
+     */
+    private static List<FermatTransaction> getRows(ExecutionJournalReader.PlanRecord plan, NetworkParameters networkParameters) throws IOException {
+        ExecutionContext context = new ExecutionContext(networkParameters, plan.getEpochTime(), false);
+        List<FermatTransaction> rows = new ArrayList<>(plan.getRows().size());
+        for (ExecutionJournalReader.Row row : plan.getRows()){
+            Address address;
+            try {
+                address = Address.fromBase58(networkParameters, row.getAddress());
+            } catch (AddressFormatException e) {
+                throw new IOException("The journal has an address that is not valid: " + row.getAddress(), e);
+            }
+
+            Coin fermats = Coin.valueOf(row.getFermats());
+            if (row.getDaysForPayment() > 0)
+                rows.add(new FermatTransaction(row.getAlias(), address, fermats, row.getDaysForPayment(), context));
+            else
+                rows.add(new FermatTransaction(row.getAlias(), address, fermats));
+        }
+        return rows;
+    }
+
+    private synchronized void add(HistorySegmentWriter writer, List<HistoryRow> paidRows) throws IOException {
+        Preconditions.checkState(mergeExecutor != null, "History is not open.");
+
+        long id = lastId + 1;
+        HistorySegment segment = writeSegment(writer, id, id);
+        lastId = id;
+
+        List<HistorySegment> current = new ArrayList<>(segments);
+        current.add(segment);
+        segments = Collections.unmodifiableList(current);
+        scheduleMerge();
+
+        for (HistoryRow row : paidRows)
+            paymentFilter.put(row);
+        if (paymentFilter.isFull())
+            rebuildFilter(paymentFilter.getCount() * 2);
+        else
+            paymentFilter.save(new File(directory, FILTER_FILE), lastId);
+    }
+
+    /**
+     * creates the filter again from the rows of every segment.
+     * @param minCapacity
+     * @throws IOException
+     */
+    private synchronized void rebuildFilter(long minCapacity) throws IOException {
+        long rowCount = 0;
+        for (HistorySegment segment : segments)
+            rowCount += segment.getRowCount();
+
+        long capacity = Math.max(Math.max(minCapacity, rowCount * 2), PaymentFilter.MIN_CAPACITY);
+        PaymentFilter filter = PaymentFilter.create((int) Math.min(capacity, Integer.MAX_VALUE));
+        for (HistorySegment segment : segments)
+            segment.addRowsTo(filter);
+
+        filter.save(new File(directory, FILTER_FILE), lastId);
+        paymentFilter = filter;
+    }
+
+    /**
+     * finds the rows of a plan that pay the same address, amount and days for payment as a past distribution.
+     * Only the rows that might be on the payment filter are looked up on the segments.
+     * @param rows the rows of the input file
+     * @return the rows already paid, in the order of the plan.
+     * @throws IOException
+     */
+    public List<DuplicatePayment> findDuplicates(List<FermatTransaction> rows) throws IOException {
+        PaymentFilter filter;
+        synchronized (this) {
+            Preconditions.checkState(paymentFilter != null, "History is not open.");
+            filter = paymentFilter;
+        }
+
+        List<DuplicatePayment> duplicates = new ArrayList<>();
+        Map<Sha256Hash, List<HistoryRow>> pastRows = new HashMap<>();
+        for (FermatTransaction row : rows){
+            String address = row.getAddress().toString();
+            if (!filter.mightContain(address, row.getFermats().getValue(), row.getDaysForPayment()))
+                continue;
+
+            // confirm it on the transactions that paid the address
+            DuplicatePayment duplicate = null;
+            for (HistoryEntry payment : getPayments(row.getAddress())){
+                Sha256Hash txid = payment.getTransactionHash();
+                List<HistoryRow> transactionRows = pastRows.get(txid);
+                if (transactionRows == null){
+                    transactionRows = getRows(txid);
+                    pastRows.put(txid, transactionRows);
+                }
+
+                for (HistoryRow pastRow : transactionRows){
+                    if (pastRow.getAddress().equals(address) && pastRow.getFermats() == row.getFermats().getValue() && pastRow.getDaysForPayment() == row.getDaysForPayment()){
+                        duplicate = new DuplicatePayment(row, pastRow, txid);
+                        break;
+                    }
+                }
+                if (duplicate != null)
+                    break;
+            }
+
+            if (duplicate != null)
+                duplicates.add(duplicate);
+        }
+        return duplicates;
+    }
+
+    /**
+     * writes a segment on a temporary file and moves it in place once complete.
+     */
+    private HistorySegment writeSegment(HistorySegmentWriter writer, long firstId, long lastId) throws IOException {
+        String name = firstId == lastId ? String.valueOf(firstId) : firstId + "-" + lastId;
+        File file = new File(directory, name + SEGMENT_EXTENSION);
+        File temporaryFile = new File(directory, name + SEGMENT_EXTENSION + TEMPORARY_EXTENSION);
+
+        writer.write(temporaryFile, firstId, lastId);
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return HistorySegment.open(file);
+    }
+
+    private synchronized void scheduleMerge() {
+        if (merging || mergeExecutor == null || segments.size() <= MERGE_THRESHOLD || selectMerge(segments).size() < 2)
+            return;
+
+        merging = true;
+        mergeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    merge();
+                } catch (IOException e) {
+                    logger.error("Unable to merge the history segments on " + directory.getAbsolutePath(), e);
+                } finally {
+                    synchronized (HistoryStore.this) {
+                        merging = false;
+                    }
+                    // distributions added while merging may need another one
+                    scheduleMerge();
+                }
+            }
+        });
+    }
+
+    /**
+     * the oldest consecutive segments that fit on a single mappable segment.
+     */
+    private static List<HistorySegment> selectMerge(List<HistorySegment> candidates) {
+        List<HistorySegment> selected = new ArrayList<>();
+        long length = 0;
+        for (HistorySegment segment : candidates){
+            if (length + segment.getLength() > HistorySegment.MAX_SEGMENT_LENGTH / 2){
+                if (selected.size() >= 2)
+                    break;
+                selected.clear();
+                length = 0;
+                continue;
+            }
+            selected.add(segment);
+            length += segment.getLength();
+        }
+        return selected;
+    }
+
+    private void merge() throws IOException {
+        // segments are only appended while merging, so the selected ones stay consecutive
+        List<HistorySegment> selected = selectMerge(segments);
+        if (selected.size() < 2)
+            return;
+
+        HistorySegmentWriter writer = new HistorySegmentWriter();
+        for (HistorySegment segment : selected)
+            segment.copyTo(writer);
+        HistorySegment merged = writeSegment(writer, selected.get(0).getFirstId(), selected.get(selected.size() - 1).getLastId());
+
+        synchronized (this) {
+            List<HistorySegment> current = new ArrayList<>(segments);
+            int position = current.indexOf(selected.get(0));
+            current.removeAll(selected);
+            current.add(position, merged);
+            segments = Collections.unmodifiableList(current);
+        }
+
+        // lookups already started may still read them, but mapped files can be deleted.
+        for (HistorySegment segment : selected)
+            delete(segment.getFile());
+        logger.debug("Merged " + selected.size() + " history segments into " + merged.getFile().getName());
+    }
+
+    private static void delete(File file) {
+        // files still mapped can't be deleted on some systems. Open deletes them on the next execution.
+        if (!file.delete())
+            file.deleteOnExit();
+    }
+
+    /**
+     * the past payments to the passed address.
+     * @param address
+     * @return
+     */
+    public List<HistoryEntry> getPayments(Address address) {
+        Preconditions.checkNotNull(address);
+
+        List<HistoryEntry> payments = new ArrayList<>();
+        for (HistorySegment segment : segments)
+            payments.addAll(segment.findPayments(address.getHash160()));
+        return payments;
+    }
+
+    /**
+     * the rows paid by the passed transaction.
+     * @param txid
+     * @return the rows, or an empty list if the transaction is not on the history.
+     * @throws IOException
+     */
+    public List<HistoryRow> getRows(Sha256Hash txid) throws IOException {
+        Preconditions.checkNotNull(txid);
+
+        List<HistoryRow> rows = new ArrayList<>();
+        for (HistorySegment segment : segments)
+            rows.addAll(segment.findRows(txid.getBytes()));
+        return rows;
+    }
+
+    /**
+     * the amount of segments currently mapped.
+     * @return
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * waits for a running merge to finish.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = mergeExecutor;
+            mergeExecutor = null;
+        }
+        if (executor == null)
+            return;
+
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(MERGE_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                logger.error("History merge still running on close. It will be completed on the next execution.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.fermat.history;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Bloom filter of the (address, fermats, days for payment) of every row paid on past distributions.
+ * A row not on the filter was surely not paid before, so only the rows it might contain are looked up on the history.
+ * File format: magic, version, id of the last distribution added, capacity, row count and the Guava filter.
+ */
+class PaymentFilter {
+    // class constants
+    private static final byte[] MAGIC = {'F', 'P', 'B', 'F'};
+    private static final int FORMAT_VERSION = 1;
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.001;
+    static final int MIN_CAPACITY = 100000;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * the fields of a row that identify a payment. The alias is not part of it.
+     */
+    private enum PaymentFunnel implements Funnel<HistoryRow> {
+        INSTANCE;
+
+        @Override
+        public void funnel(HistoryRow row, PrimitiveSink into) {
+            into.putString(row.getAddress(), CHARSET)
+                    .putLong(row.getFermats())
+                    .putInt(row.getDaysForPayment());
+        }
+    }
+
+    private final BloomFilter<HistoryRow> filter;
+    private final int capacity;
+    private long count;
+
+    private PaymentFilter(BloomFilter<HistoryRow> filter, int capacity, long count) {
+        this.filter = filter;
+        this.capacity = capacity;
+        this.count = count;
+    }
+
+    /**
+     * creates an empty filter.
+     * @param capacity amount of rows it can hold with the expected false positive probability.
+     * @return
+     */
+    static PaymentFilter create(int capacity) {
+        Preconditions.checkArgument(capacity > 0);
+
+        return new PaymentFilter(BloomFilter.create(PaymentFunnel.INSTANCE, capacity, FALSE_POSITIVE_PROBABILITY), capacity, 0);
+    }
+
+    /**
+     * reads a filter stored by save().
+     * @param file
+     * @param lastId the id of the last distribution on the history
+     * @return the filter, or null if it doesn't exist or doesn't have every distribution up to lastId.
+     */
+    static PaymentFilter load(File file, long lastId) {
+        if (!file.exists())
+            return null;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            byte[] magic = new byte[MAGIC.length];
+            input.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || input.readInt() != FORMAT_VERSION || input.readLong() != lastId)
+                return null;
+
+            int capacity = input.readInt();
+            long count = input.readLong();
+            return new PaymentFilter(BloomFilter.readFrom(input, PaymentFunnel.INSTANCE), capacity, count);
+        } catch (IOException | RuntimeException e) {
+            // it is rebuilt from the segments
+            return null;
+        }
+    }
+
+    /**
+     * stores the filter, replacing the previous one only once complete.
+     * @param file
+     * @param lastId the id of the last distribution added to the filter
+     * @throws IOException
+     */
+    synchronized void save(File file, long lastId) throws IOException {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileStream = new FileOutputStream(temporaryFile)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024));
+            output.write(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(lastId);
+            output.writeInt(capacity);
+            output.writeLong(count);
+            filter.writeTo(output);
+            output.flush();
+            fileStream.getFD().sync();
+        }
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    synchronized void put(HistoryRow row) {
+        filter.put(row);
+        count++;
+    }
+
+    /**
+     * false if the passed payment was surely not made before.
+     * @param address
+     * @param fermats
+     * @param daysForPayment
+     * @return
+     */
+    synchronized boolean mightContain(String address, long fermats, int daysForPayment) {
+        return filter.mightContain(new HistoryRow("", address, fermats, daysForPayment));
+    }
+
+    /**
+     * true once it holds more rows than its capacity, and false positives become more frequent than expected.
+     * @return
+     */
+    synchronized boolean isFull() {
+        return count > capacity;
+    }
+
+    synchronized long getCount() {
+        return count;
+    }
+}
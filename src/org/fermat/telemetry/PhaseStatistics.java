@@ -0,0 +1,70 @@
+package org.fermat.telemetry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Totals of every execution of a phase, which can be recorded from several threads at the same time.
+ * CPU time and allocated bytes are the ones of the threads that recorded the executions.
+ */
+public class PhaseStatistics {
+    private final String name;
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong wallNanos = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    // -1 when the JVM can't measure them
+    private volatile boolean cpuMeasured = true;
+    private volatile boolean allocationMeasured = true;
+
+    PhaseStatistics(String name) {
+        this.name = name;
+    }
+
+    void record(long items, long wallNanos, long cpuNanos, long allocatedBytes) {
+        this.executions.incrementAndGet();
+        this.items.addAndGet(items);
+        this.wallNanos.addAndGet(wallNanos);
+
+        if (cpuNanos < 0)
+            cpuMeasured = false;
+        else
+            this.cpuNanos.addAndGet(cpuNanos);
+
+        if (allocatedBytes < 0)
+            allocationMeasured = false;
+        else
+            this.allocatedBytes.addAndGet(allocatedBytes);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    public long getItems() {
+        return items.get();
+    }
+
+    public long getWallNanos() {
+        return wallNanos.get();
+    }
+
+    /**
+     * @return the CPU time, or -1 if the JVM doesn't measure it.
+     */
+    public long getCpuNanos() {
+        return cpuMeasured ? cpuNanos.get() : -1;
+    }
+
+    /**
+     * @return the allocated bytes, or -1 if the JVM doesn't measure them.
+     */
+    public long getAllocatedBytes() {
+        return allocationMeasured ? allocatedBytes.get() : -1;
+    }
+}
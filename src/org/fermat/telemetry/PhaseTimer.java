@@ -0,0 +1,51 @@
+package org.fermat.telemetry;
+
+/**
+ * Measures one execution of a phase on the calling thread: wall time, CPU time and allocated bytes.
+ * Must be stopped on the same thread it was started.
+ */
+public class PhaseTimer implements AutoCloseable {
+    // timer returned while telemetry is disabled
+    static final PhaseTimer DISABLED = new PhaseTimer(null);
+
+    private final PhaseStatistics phase;
+    private final long startNanos;
+    private final long startCpuNanos;
+    private final long startAllocatedBytes;
+
+    PhaseTimer(PhaseStatistics phase) {
+        this.phase = phase;
+        if (phase == null){
+            startNanos = 0;
+            startCpuNanos = 0;
+            startAllocatedBytes = 0;
+            return;
+        }
+
+        startAllocatedBytes = Telemetry.getCurrentThreadAllocatedBytes();
+        startCpuNanos = Telemetry.getCurrentThreadCpuNanos();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * records the execution of the phase
+     * @param items amount of rows or transactions processed on this execution.
+     */
+    public void stop(long items) {
+        if (phase == null)
+            return;
+
+        long wallNanos = System.nanoTime() - startNanos;
+        long cpuNanos = startCpuNanos < 0 ? -1 : Telemetry.getCurrentThreadCpuNanos() - startCpuNanos;
+        long allocatedBytes = startAllocatedBytes < 0 ? -1 : Telemetry.getCurrentThreadAllocatedBytes() - startAllocatedBytes;
+        phase.record(items, wallNanos, cpuNanos, allocatedBytes);
+    }
+
+    /**
+     * records the execution of the phase, counting a single item.
+     */
+    @Override
+    public void close() {
+        stop(1);
+    }
+}
@@ -0,0 +1,169 @@
+package org.fermat.telemetry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Registry of the time, CPU and allocated bytes spent on each phase of the execution.
+ * It is disabled by default, and while disabled timers don't measure anything.
+ * Phases are reported in the order they were first executed.
+ */
+public final class Telemetry {
+    // phases of the execution
+    public static final String STARTUP = "startup";
+    public static final String TRANSACTION_GENERATION = "transaction generation";
+    public static final String INPUT_FILE_READ = "input file read";
+    public static final String ROW_VALIDATION = "row validation";
+    public static final String DUPLICATE_CHECK = "duplicate check";
+    public static final String SUMMARY = "summary";
+    public static final String NETWORK_INITIALIZATION = "network initialization";
+    public static final String BLOCKCHAIN_DOWNLOAD = "blockchain download";
+    public static final String TRANSACTION_BUILD = "transaction build";
+    public static final String TRANSACTION_COMPLETION = "transaction completion";
+    public static final String TRANSACTION_SIGNING = "transaction signing";
+    public static final String SIGNATURE_VERIFICATION = "signature verification";
+    public static final String BROADCAST = "broadcast";
+    public static final String CONFIRMATION = "confirmation";
+    public static final String EXECUTION_JOURNAL = "execution journal";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private static final Map<String, PhaseStatistics> phases = new LinkedHashMap<>();
+    private static volatile boolean enabled = false;
+    private static volatile boolean allocationSupported = false;
+
+    private Telemetry() {
+    }
+
+    /**
+     * starts measuring the phases.
+     */
+    public static void enable() {
+        if (threadBean.isThreadCpuTimeSupported() && !threadBean.isThreadCpuTimeEnabled())
+            threadBean.setThreadCpuTimeEnabled(true);
+
+        // allocated bytes are only available on HotSpot
+        if (threadBean instanceof com.sun.management.ThreadMXBean){
+            com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (hotspotBean.isThreadAllocatedMemorySupported()){
+                if (!hotspotBean.isThreadAllocatedMemoryEnabled())
+                    hotspotBean.setThreadAllocatedMemoryEnabled(true);
+                allocationSupported = true;
+            }
+        }
+
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * starts measuring an execution of the passed phase on the calling thread.
+     * @param phase
+     * @return the timer to stop once the phase ends. It does nothing if telemetry is disabled.
+     */
+    public static PhaseTimer start(String phase) {
+        if (!enabled)
+            return PhaseTimer.DISABLED;
+
+        return new PhaseTimer(getPhase(phase));
+    }
+
+    private static PhaseStatistics getPhase(String name) {
+        synchronized (phases) {
+            PhaseStatistics phase = phases.get(name);
+            if (phase == null){
+                phase = new PhaseStatistics(name);
+                phases.put(name, phase);
+            }
+            return phase;
+        }
+    }
+
+    /**
+     * the statistics of every phase executed so far.
+     * @return
+     */
+    public static List<PhaseStatistics> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<>(phases.values());
+        }
+    }
+
+    static long getCurrentThreadCpuNanos() {
+        if (!threadBean.isThreadCpuTimeSupported())
+            return -1;
+
+        return threadBean.getCurrentThreadCpuTime();
+    }
+
+    static long getCurrentThreadAllocatedBytes() {
+        if (!allocationSupported)
+            return -1;
+
+        return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * a table with the phases, to show on screen.
+     * @return
+     */
+    public static String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%-24s %10s %10s %12s %12s %14s", "Phase", "Executions", "Items", "Wall ms", "CPU ms", "Allocated MB"));
+        report.append(System.lineSeparator());
+        for (PhaseStatistics phase : getPhases()){
+            report.append(String.format(Locale.ROOT, "%-24s %10d %10d %12.1f %12s %14s",
+                    phase.getName(),
+                    phase.getExecutions(),
+                    phase.getItems(),
+                    phase.getWallNanos() / 1e6,
+                    phase.getCpuNanos() < 0 ? "n/a" : String.format(Locale.ROOT, "%.1f", phase.getCpuNanos() / 1e6),
+                    phase.getAllocatedBytes() < 0 ? "n/a" : String.format(Locale.ROOT, "%.1f", phase.getAllocatedBytes() / (1024.0 * 1024.0))));
+            report.append(System.lineSeparator());
+        }
+        report.append("CPU time and allocations are the ones of the threads running each phase. Work done in parallel is reported on its own phase.");
+        report.append(System.lineSeparator());
+        return report.toString();
+    }
+
+    /**
+     * writes the phases to the passed file in JSON format.
+     * @param file
+     * @throws IOException
+     */
+    public static void writeReport(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), CHARSET)) {
+            writer.write("{\n");
+            writer.write("  \"phases\": [");
+
+            boolean first = true;
+            for (PhaseStatistics phase : getPhases()){
+                writer.write(first ? "\n" : ",\n");
+                writer.write("    {\"name\": \"" + phase.getName() + "\"" +
+                        ", \"executions\": " + phase.getExecutions() +
+                        ", \"items\": " + phase.getItems() +
+                        ", \"wallNanos\": " + phase.getWallNanos() +
+                        ", \"cpuNanos\": " + phase.getCpuNanos() +
+                        ", \"allocatedBytes\": " + phase.getAllocatedBytes() + "}");
+                first = false;
+            }
+            writer.write(first ? "]\n" : "\n  ]\n");
+            writer.write("}\n");
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.fermat.transaction;
+
+import com.google.common.base.Preconditions;
+import org.fermatj.script.Script;
+import org.fermatj.script.ScriptBuilder;
+import org.fermatj.script.ScriptChunk;
+import org.fermatj.script.ScriptOpCodes;
+
+import java.util.Arrays;
+
+/**
+ * Precompiled layout of the time constrained redeem script.
+ * Every redeem script has the same bytes except for the locktime and the hash160 of the receiver:
+ * [8] locktime OP_NOP2 OP_DROP OP_DUP OP_HASH160 hash160 OP_EQUALVERIFY OP_CHECKSIG
+ * so scripts are generated by copying the template and writing those two values in place.
+ */
+public class RedeemScriptTemplate {
+    // class constants
+    private static final int LOCKTIME_LENGTH = 8;
+    private static final int HASH160_LENGTH = 20;
+
+    private static final int LOCKTIME_OFFSET = 1;
+    private static final int NOP2_OFFSET = LOCKTIME_OFFSET + LOCKTIME_LENGTH;
+    private static final int HASH160_OFFSET = NOP2_OFFSET + 4;
+    private static final int EQUALVERIFY_OFFSET = HASH160_OFFSET + HASH160_LENGTH;
+
+    public static final int REDEEM_SCRIPT_LENGTH = EQUALVERIFY_OFFSET + 2;
+    public static final int P2SH_SCRIPT_LENGTH = 3 + HASH160_LENGTH;
+
+    private static final byte[] REDEEM_SCRIPT_TEMPLATE = createRedeemScriptTemplate();
+    private static final byte[] P2SH_SCRIPT_TEMPLATE = createP2SHScriptTemplate();
+
+    private RedeemScriptTemplate() {
+    }
+
+    private static byte[] createRedeemScriptTemplate() {
+        byte[] template = new byte[REDEEM_SCRIPT_LENGTH];
+        template[0] = (byte) LOCKTIME_LENGTH;
+        template[NOP2_OFFSET] = (byte) ScriptOpCodes.OP_NOP2;
+        template[NOP2_OFFSET + 1] = (byte) ScriptOpCodes.OP_DROP;
+        template[NOP2_OFFSET + 2] = (byte) ScriptOpCodes.OP_DUP;
+        template[NOP2_OFFSET + 3] = (byte) ScriptOpCodes.OP_HASH160;
+        template[EQUALVERIFY_OFFSET] = (byte) ScriptOpCodes.OP_EQUALVERIFY;
+        template[EQUALVERIFY_OFFSET + 1] = (byte) ScriptOpCodes.OP_CHECKSIG;
+        return template;
+    }
+
+    private static byte[] createP2SHScriptTemplate() {
+        byte[] template = new byte[P2SH_SCRIPT_LENGTH];
+        template[0] = (byte) ScriptOpCodes.OP_HASH160;
+        template[1] = (byte) HASH160_LENGTH;
+        template[P2SH_SCRIPT_LENGTH - 1] = (byte) ScriptOpCodes.OP_EQUAL;
+        return template;
+    }
+
+    /**
+     * generates the program of the redeem script for the passed locktime and receiver.
+     * @param locktime the epoch time from which the output can be redeemed
+     * @param hash160 the hash160 of the receiver address
+     * @return
+     */
+    public static byte[] createRedeemScript(long locktime, byte[] hash160) {
+        Preconditions.checkArgument(hash160.length == HASH160_LENGTH);
+
+        byte[] redeemScript = Arrays.copyOf(REDEEM_SCRIPT_TEMPLATE, REDEEM_SCRIPT_LENGTH);
+
+        // locktime is written big endian
+        for (int i = LOCKTIME_LENGTH - 1; i >= 0; i--){
+            redeemScript[LOCKTIME_OFFSET + i] = (byte) locktime;
+            locktime >>>= 8;
+        }
+
+        System.arraycopy(hash160, 0, redeemScript, HASH160_OFFSET, HASH160_LENGTH);
+        return redeemScript;
+    }
+
+    /**
+     * generates the pay to script hash output program for the passed redeem script.
+     * @param redeemScript
+     * @return
+     */
+    public static byte[] createP2SHOutputScript(byte[] redeemScript) {
+        byte[] outputScript = Arrays.copyOf(P2SH_SCRIPT_TEMPLATE, P2SH_SCRIPT_LENGTH);
+        System.arraycopy(org.fermatj.core.Utils.sha256hash160(redeemScript), 0, outputScript, 2, HASH160_LENGTH);
+        return outputScript;
+    }
+
+    /**
+     * builds the Script with the same chunks the redeem script was created from, used to show it.
+     * @param redeemScript a program generated by createRedeemScript
+     * @return
+     */
+    public static Script toScript(byte[] redeemScript) {
+        Preconditions.checkArgument(redeemScript.length == REDEEM_SCRIPT_LENGTH);
+
+        ScriptBuilder scriptBuilder = new ScriptBuilder();
+        scriptBuilder.addChunk(new ScriptChunk(LOCKTIME_LENGTH, Arrays.copyOfRange(redeemScript, LOCKTIME_OFFSET, NOP2_OFFSET)));
+        scriptBuilder.addChunk(new ScriptChunk(ScriptOpCodes.OP_NOP2, null));
+        scriptBuilder.addChunk(new ScriptChunk(ScriptOpCodes.OP_DROP, null));
+        scriptBuilder.addChunk(new ScriptChunk(ScriptOpCodes.OP_DUP, null));
+        scriptBuilder.addChunk(new ScriptChunk(ScriptOpCodes.OP_HASH160, Arrays.copyOfRange(redeemScript, HASH160_OFFSET, EQUALVERIFY_OFFSET)));
+        scriptBuilder.addChunk(new ScriptChunk(ScriptOpCodes.OP_EQUALVERIFY, null));
+        scriptBuilder.addChunk(new ScriptChunk(ScriptOpCodes.OP_CHECKSIG, null));
+
+        return scriptBuilder.build();
+    }
+}
@@ -1,36 +1,42 @@
 package org.fermat.transaction;
 
 import com.google.common.base.Preconditions;
-import org.fermat.Main;
+import org.fermat.ExecutionContext;
 import org.fermat.fermatTransaction.FermatTransaction;
+import org.fermat.telemetry.PhaseTimer;
+import org.fermat.telemetry.Telemetry;
 import org.fermatj.core.*;
 import org.fermatj.crypto.TransactionSignature;
-import org.fermatj.script.Script;
-import org.fermatj.script.ScriptBuilder;
-import org.fermatj.script.ScriptChunk;
-import org.fermatj.script.ScriptOpCodes;
 import org.fermatj.wallet.RedeemData;
 
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Created by rodrigo on 7/25/16.
+ * When the outputs don't fit on a single transaction, they are split into a chain of transactions
+ * where each one spends the change output of the previous one.
  */
 public class TransactionBuilder {
     // class contants
     private final List<FermatTransaction> fermatTransactionList;
     private final Sha256Hash genesisTxhash;
     private final Wallet wallet;
-    private final Transaction transaction;
+    private final List<Transaction> transactions;
     private final Transaction genesisTransaction;
+    private final TransactionOutput fundingOutput;
+
+    // class variables
+    private Transaction transaction; // the transaction receiving outputs
+    private TransactionOutput changeOutput;
 
     /**
      * Constructor
      * The ID of the Genesis Transaction that has all the preMining funds.
+     * @param context the job, which defines how the genesis transaction is validated.
      * @param genesisTxhash
      */
-    public TransactionBuilder(Sha256Hash genesisTxhash, Wallet wallet, List<FermatTransaction> fermatTransactions) {
+    public TransactionBuilder(ExecutionContext context, Sha256Hash genesisTxhash, Wallet wallet, List<FermatTransaction> fermatTransactions) {
         this.genesisTxhash = genesisTxhash;
         this.wallet = wallet;
         this.fermatTransactionList = fermatTransactions;
@@ -41,16 +47,34 @@ public class TransactionBuilder {
         // gets the genesis transaction
         genesisTransaction = wallet.getTransaction(genesisTxhash);
         try {
-            Utils.validateGenesisTransaction(genesisTransaction);
+            Utils.validateGenesisTransaction(genesisTransaction, context);
         } catch (GenesisTransactionNotValidException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
 
-        //initialize transaction
-        transaction = new Transaction(wallet.getParams());
+        //identify my output on the genesisTransaction
+        fundingOutput = getMyOutput();
+
+        //initialize transactions. Inputs are added when completing them, since each one depends on the previous one.
+        transactions = new ArrayList<>();
+    }
+
+    /**
+     * Constructor of a distribution funded by the change of a previous distribution of this execution.
+     * The output was created by a previous builder, so it is not validated again.
+     * @param fundingOutput the change output of the previous distribution
+     */
+    public TransactionBuilder(TransactionOutput fundingOutput, Wallet wallet, List<FermatTransaction> fermatTransactions) {
+        Preconditions.checkNotNull(fundingOutput);
+        Preconditions.checkNotNull(fundingOutput.getParentTransaction());
+
+        this.fundingOutput = fundingOutput;
+        this.genesisTransaction = fundingOutput.getParentTransaction();
+        this.genesisTxhash = genesisTransaction.getHash();
+        this.wallet = wallet;
+        this.fermatTransactionList = fermatTransactions;
 
-        //add the input
-        addGenesisTransactionInput();
+        transactions = new ArrayList<>();
     }
 
     /**
@@ -60,16 +84,17 @@ public class TransactionBuilder {
         fermatTransactionList = null;
         genesisTxhash = null;
         wallet = null;
-        transaction = null;
+        transactions = null;
         genesisTransaction = null;
+        fundingOutput = null;
     }
 
     /**
-     * creates the input pointing to the output of our own key
+     * creates the input of the passed transaction pointing to an output of our own key
+     * @param transaction
+     * @param output the genesis output for the first transaction, or the change of the previous one.
      */
-    private void addGenesisTransactionInput(){
-        //identify my output on the genesisTransaction
-        TransactionOutput output = getMyOutput();
+    private void addFundingInput(Transaction transaction, TransactionOutput output){
         Preconditions.checkNotNull(output);
 
         TransactionOutPoint outPoint = new TransactionOutPoint(wallet.getParams(), output);
@@ -93,13 +118,38 @@ public class TransactionBuilder {
     }
 
     /**
-     * getter of the transaction we are building,
+     * getter of the transactions we are building, in the order they must be broadcasted.
+     * @return
+     */
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * the change output of the last transaction, which can fund a following distribution.
+     * @return the change, or null if the transactions are not completed or everything was distributed.
+     */
+    public TransactionOutput getChangeOutput() {
+        return changeOutput;
+    }
+
+    /**
+     * gets the transaction that will receive the next output, starting a new one when the current is full.
+     * One output of each transaction is left for the change.
      * @return
      */
-    public Transaction getTransaction() {
+    private Transaction getOutputTransaction() {
+        if (transaction == null || transaction.getOutputs().size() >= Utils.MAX_OUTPUTS - 1){
+            transaction = new Transaction(wallet.getParams());
+            transactions.add(transaction);
+        }
         return transaction;
     }
 
+    private void addRecipientOutput(TransactionOutput output) {
+        getOutputTransaction().addOutput(output);
+    }
+
     /**
      * adds a fermat transaction which will generate the outputs into the transaction
      * @param fermatTransaction
@@ -120,7 +170,7 @@ public class TransactionBuilder {
         // instead of using the public key, I will send it to the address
         Address address = fermatTransaction.getAddress();
         TransactionOutput output = new TransactionOutput(this.wallet.getParams(), this.genesisTransaction, fermats, address);
-        transaction.addOutput(output);
+        addRecipientOutput(output);
 
         fermatTransaction.setOutput(output);
         fermatTransaction.setRedeemScript(output.getScriptPubKey());
@@ -133,64 +183,62 @@ public class TransactionBuilder {
     public void addTimeConstrainedTransaction(FermatTransaction fermatTransaction) {
         Coin fermats = fermatTransaction.getFermats();
 
+        byte[] redeemScript = RedeemScriptTemplate.createRedeemScript(fermatTransaction.getPaymentEpochTime(), fermatTransaction.getAddress().getHash160());
 
-        byte[] epochTime = longToBytes(fermatTransaction.getPaymentEpochTime());
-        ScriptChunk pushData4 = new ScriptChunk(8, epochTime);
-        ScriptChunk locktimeVerify = new ScriptChunk(ScriptOpCodes.OP_NOP2, null);
-        ScriptChunk drop = new ScriptChunk(ScriptOpCodes.OP_DROP, null);
-        ScriptChunk dup = new ScriptChunk(ScriptOpCodes.OP_DUP, null);
-        ScriptChunk hash = new ScriptChunk(ScriptOpCodes.OP_HASH160, fermatTransaction.getAddress().getHash160());
-        ScriptChunk equal = new ScriptChunk(ScriptOpCodes.OP_EQUALVERIFY, null);
-        ScriptChunk checksig = new ScriptChunk(ScriptOpCodes.OP_CHECKSIG, null);
-
-
-        ScriptBuilder scriptBuilder = new ScriptBuilder();
-        scriptBuilder.addChunk(pushData4);
-        scriptBuilder.addChunk(locktimeVerify);
-        scriptBuilder.addChunk(drop);
-        scriptBuilder.addChunk(dup);
-        scriptBuilder.addChunk(hash);
-        scriptBuilder.addChunk(equal);
-        scriptBuilder.addChunk(checksig);
-
-        Script redeemScript = scriptBuilder.build();
-
-        if (transaction != null && genesisTransaction != null){
-            Script outputScript = ScriptBuilder.createP2SHOutputScript(redeemScript);
-            TransactionOutput output = new TransactionOutput(this.wallet.getParams(), this.genesisTransaction, fermats, outputScript.getProgram());
+        if (transactions != null && genesisTransaction != null){
+            byte[] outputScript = RedeemScriptTemplate.createP2SHOutputScript(redeemScript);
+            TransactionOutput output = new TransactionOutput(this.wallet.getParams(), this.genesisTransaction, fermats, outputScript);
 
-            transaction.addOutput(output);
+            addRecipientOutput(output);
             fermatTransaction.setOutput(output);
         }
 
         //add the output that will be used for this transaction
-        fermatTransaction.setRedeemScript(redeemScript);
-    }
-
-
-    private byte[] longToBytes(long x) {
-        ByteBuffer buffer = ByteBuffer.allocate(8);
-        buffer.putLong(x);
-        return buffer.array();
+        fermatTransaction.setRedeemScriptProgram(redeemScript);
     }
 
     /**
-     * completes the transaction and prepares it for sending
-     * @throws InsufficientMoneyException
+     * completes the transactions and prepares them for sending.
+     * The input and change output of each transaction are fixed here and the transaction is signed with our key,
+     * without coin selection or locking the wallet. Transactions are completed in order, since each one spends
+     * the change of the previous one and its input needs the hash of the signed previous transaction.
+     * Once all are signed, they are verified in parallel.
      */
-    public void completeTransaction() throws InsufficientMoneyException, TransactionErrorException {
-        //let the sendRequest complete the change outputs and signature
-        Wallet.SendRequest sendRequest = Wallet.SendRequest.forTx(transaction);
+    public void completeTransaction() throws TransactionErrorException {
         ECKey privateKey = wallet.getImportedKeys().get(0);
-        sendRequest.changeAddress = privateKey.toAddress(wallet.getParams());
+        Address changeAddress = privateKey.toAddress(wallet.getParams());
+        TransactionSigner signer = new TransactionSigner(privateKey);
+
+        TransactionOutput fundingOutput = this.fundingOutput;
+
+        for (int i = 0; i < transactions.size(); i++){
+            Transaction current = transactions.get(i);
+            if (fundingOutput == null)
+                throw new TransactionErrorException("Transaction " + (i + 1) + "/" + transactions.size() + " has no output of our own key to spend.");
 
-        sendRequest.ensureMinRequiredFee = false;
-        sendRequest.fee = Coin.ZERO;
+            addFundingInput(current, fundingOutput);
+
+            // no fee is paid, everything that is not distributed goes back to our key
+            Coin change = fundingOutput.getValue().subtract(current.getOutputSum());
+            if (change.isNegative())
+                throw new TransactionErrorException("Transaction " + (i + 1) + "/" + transactions.size() + " sends more than the available funds. Missing " + change.negate().toFriendlyString());
+
+            // the next transaction is funded by the change of this one
+            fundingOutput = null;
+            if (change.signum() > 0){
+                fundingOutput = new TransactionOutput(this.wallet.getParams(), current, change, changeAddress);
+                current.addOutput(fundingOutput);
+            }
+
+            try (PhaseTimer signingTimer = Telemetry.start(Telemetry.TRANSACTION_SIGNING)) {
+                signer.sign(current);
+            }
+        }
 
-        wallet.completeTx(sendRequest);
+        changeOutput = fundingOutput;
 
         //once completed let's make sure everything is ok
-        Utils.validateOutgoingTransaction(sendRequest.tx, privateKey);
+        signer.verify(transactions);
     }
 
 }
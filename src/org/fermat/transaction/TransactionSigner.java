@@ -0,0 +1,121 @@
+package org.fermat.transaction;
+
+import com.google.common.base.Preconditions;
+import org.fermat.telemetry.PhaseTimer;
+import org.fermat.telemetry.Telemetry;
+import org.fermatj.core.*;
+import org.fermatj.crypto.TransactionSignature;
+import org.fermatj.script.Script;
+import org.fermatj.script.ScriptBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Signs transactions whose inputs and outputs were already fixed by the TransactionBuilder, using our key directly
+ * instead of going through the wallet. Verification of the signed transactions runs in parallel.
+ */
+public class TransactionSigner {
+    // class constants
+    private final ECKey privateKey;
+
+    /**
+     * constructor
+     * @param privateKey the key that owns the outputs spent by the transactions.
+     */
+    public TransactionSigner(ECKey privateKey) {
+        Preconditions.checkNotNull(privateKey);
+        Preconditions.checkArgument(!privateKey.isPubKeyOnly());
+
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * signs all the inputs of the passed transaction. Every input must be connected to a pay to address or pay to
+     * public key output of our key.
+     * @param transaction
+     * @throws TransactionErrorException
+     */
+    public void sign(Transaction transaction) throws TransactionErrorException {
+        Address myAddress = privateKey.toAddress(transaction.getParams());
+
+        for (int i = 0; i < transaction.getInputs().size(); i++){
+            TransactionInput input = transaction.getInput(i);
+            TransactionOutput connectedOutput = input.getConnectedOutput();
+            if (connectedOutput == null)
+                throw new TransactionErrorException("Input " + i + " of transaction " + transaction.getHashAsString() + " is not connected to the output it spends.");
+
+            Script scriptPubKey = connectedOutput.getScriptPubKey();
+            if (scriptPubKey.isSentToAddress() && scriptPubKey.getToAddress(transaction.getParams()).equals(myAddress)){
+                TransactionSignature signature = transaction.calculateSignature(i, privateKey, scriptPubKey, Transaction.SigHash.ALL, false);
+                input.setScriptSig(ScriptBuilder.createInputScript(signature, privateKey));
+            } else if (scriptPubKey.isSentToRawPubKey() && Arrays.equals(scriptPubKey.getPubKey(), privateKey.getPubKey())){
+                // premined outputs may pay to the public key, their input script is only the signature.
+                TransactionSignature signature = transaction.calculateSignature(i, privateKey, scriptPubKey, Transaction.SigHash.ALL, false);
+                input.setScriptSig(ScriptBuilder.createInputScript(signature));
+            } else
+                throw new TransactionErrorException("Input " + i + " of transaction " + transaction.getHashAsString() + " doesn't spend an output of our private key.");
+        }
+    }
+
+    /**
+     * verifies the signatures of the passed transactions and runs the outgoing transaction validations, one transaction per core.
+     * @param transactions
+     * @throws TransactionErrorException with the first error found, in transaction order.
+     */
+    public void verify(List<Transaction> transactions) throws TransactionErrorException {
+        if (transactions.isEmpty())
+            return;
+
+        int threads = Math.min(transactions.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>(transactions.size());
+            for (final Transaction transaction : transactions){
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        verify(transaction);
+                        return null;
+                    }
+                });
+            }
+
+            for (Future<Void> result : executor.invokeAll(tasks)){
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof TransactionErrorException)
+                        throw (TransactionErrorException) e.getCause();
+
+                    throw new TransactionErrorException("Signed transaction is not valid. " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionErrorException("Interrupted while verifying the signed transactions.", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void verify(Transaction transaction) throws TransactionErrorException {
+        try (PhaseTimer verificationTimer = Telemetry.start(Telemetry.SIGNATURE_VERIFICATION)) {
+            for (TransactionInput input : transaction.getInputs()){
+                try {
+                    input.verify(input.getConnectedOutput());
+                } catch (VerificationException e) {
+                    throw new TransactionErrorException("Transaction " + transaction.getHashAsString() + " is not correctly signed.", e);
+                }
+            }
+
+            Utils.validateOutgoingTransaction(transaction, privateKey);
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package org.fermat.transaction;
 
 import com.google.common.base.Preconditions;
-import org.fermat.Main;
+import org.fermat.ExecutionContext;
 import org.fermatj.core.*;
 
 /**
@@ -9,19 +9,21 @@ import org.fermatj.core.*;
  */
 public class Utils {
     public static final long preminedAmount = 2100000;
+    public static final int MAX_OUTPUTS = 50; // max outputs of an outgoing transaction
 
-    public static void validateGenesisTransaction(Transaction tx) throws GenesisTransactionNotValidException {
+    public static void validateGenesisTransaction(Transaction tx, ExecutionContext context) throws GenesisTransactionNotValidException {
         Preconditions.checkNotNull(tx);
+        Preconditions.checkNotNull(context);
 
         // if we are testing we won't require many blocks to confirm transactions.
         int confirmationBlockDepth;
-        if (Main.isIsTestExecution())
+        if (context.isTestExecution())
             confirmationBlockDepth = 1;
         else
             confirmationBlockDepth = 6;
 
         // ifg this is a test execution I will leave and ignore the conditions validation
-        if (Main.isIsTestExecution())
+        if (context.isTestExecution())
             return;
 
         // is already confirmed?
@@ -39,8 +41,8 @@ public class Utils {
             throw new TransactionErrorException("Outgoing transaction must only have one input.");
 
         // too many outputs?
-        if (tx.getOutputs().size() > 50)
-            throw new TransactionErrorException("Outgoing transaction can't have more than 50 outputs.");
+        if (tx.getOutputs().size() > MAX_OUTPUTS)
+            throw new TransactionErrorException("Outgoing transaction can't have more than " + MAX_OUTPUTS + " outputs.");
 
 
         // too few outputs.
@@ -61,12 +63,13 @@ public class Utils {
 
     }
 
-    public static ECKey getKey(String dumpedKey){
+    public static ECKey getKey(NetworkParameters networkParameters, String dumpedKey){
+        Preconditions.checkNotNull(networkParameters);
         Preconditions.checkNotNull(dumpedKey);
 
         DumpedPrivateKey dumpedPrivateKey = null;
         try {
-            dumpedPrivateKey = new DumpedPrivateKey(Main.getNetworkParameters(), dumpedKey);
+            dumpedPrivateKey = new DumpedPrivateKey(networkParameters, dumpedKey);
         } catch (AddressFormatException e) {
             e.printStackTrace();
         }